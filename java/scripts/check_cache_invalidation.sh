@@ -0,0 +1,36 @@
+#!/bin/bash
+# Starts two client processes listening for cache invalidations, changes a
+# cached row from a third session and checks both clients were notified.
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+DB=$USER"_project_phase_3_DB"
+CP=$DIR/../classes:$DIR/../lib/pg73jdbc3.jar
+OUT=$(mktemp -d)
+
+javac -d $DIR/../classes $DIR/../src/AirlineManagement.java
+
+for i in 1 2; do
+   mkfifo $OUT/in$i
+   java -cp $CP AirlineManagement $DB $PGPORT $USER watch-invalidations < $OUT/in$i > $OUT/client$i.log 2>&1 &
+   exec {fd}>$OUT/in$i
+   eval "FD$i=$fd"
+done
+sleep 3
+
+psql -h localhost -p $PGPORT $DB -c "UPDATE Plane SET Year = Year WHERE PlaneID = 'PL001'" > /dev/null
+sleep 1
+
+eval "exec $FD1>&- $FD2>&-"
+wait
+
+STATUS=0
+for i in 1 2; do
+   if grep -q "Invalidated plane:PL001\|Invalidated plane:\*" $OUT/client$i.log; then
+      echo "client $i: invalidated"
+   else
+      echo "client $i: NOT invalidated"
+      cat $OUT/client$i.log
+      STATUS=1
+   fi
+done
+rm -rf $OUT
+exit $STATUS
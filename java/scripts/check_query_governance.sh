@@ -0,0 +1,20 @@
+#!/bin/bash
+# Saturates the database with heavy reports and checks that booking latency
+# stays bounded while admission control is on. Usage:
+#    check_query_governance.sh [<report threads> [<seconds> [<max p99 ms>]]]
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+DB=$USER"_project_phase_3_DB"
+CP=$DIR/../classes:$DIR/../lib/pg73jdbc3.jar
+OUT=$(mktemp)
+
+javac -d $DIR/../classes $DIR/../src/AirlineManagement.java
+
+java -cp $CP AirlineManagement $DB $PGPORT $USER bench-query-governance ${1:-8} ${2:-30} ${3:-100} > $OUT 2>&1
+cat $OUT
+
+STATUS=1
+if grep -q "^PASS" $OUT; then
+   STATUS=0
+fi
+rm -f $OUT
+exit $STATUS
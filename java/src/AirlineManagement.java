@@ -11,6 +11,14 @@
  */
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
@@ -23,6 +31,14 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
 import java.lang.Math;
 
 /**
@@ -35,6 +51,19 @@ public class AirlineManagement {
    // reference to physical database connection.
    private Connection _connection = null;
 
+   // connection settings, kept so helper threads can open their own connections
+   private String _url = null;
+   private String _user = null;
+   private String _passwd = null;
+
+   // cached query results grouped by "table:key", evicted by the invalidation listener
+   private final Map<String, Map<String, CachedResult>> _cache = new ConcurrentHashMap<String, Map<String, CachedResult>>();
+   private final AtomicLong _cacheGeneration = new AtomicLong();
+   private CacheInvalidationListener _cacheListener = null;
+
+   // background writer for AuditEvent, started on the first audited action
+   private volatile AuditLog _auditLog = null;
+
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
    static BufferedReader in = new BufferedReader(
@@ -59,6 +88,10 @@ public class AirlineManagement {
 
          // obtain a physical connection
          this._connection = DriverManager.getConnection(url, user, passwd);
+         this._url = url;
+         this._user = user;
+         this._passwd = passwd;
+         applyQueryClass(QueryClass.INTERACTIVE);
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -67,22 +100,254 @@ public class AirlineManagement {
       }//end catch
    }//end AirlineManagement
 
+   /**
+    * Opens a second, independent connection with the same settings, for work
+    * that runs on another thread.
+    *
+    * @return the new instance
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public AirlineManagement openSession() throws SQLException {
+      return new AirlineManagement(this._url, this._user, this._passwd);
+   }//end openSession
+
+   private AirlineManagement(String url, String user, String passwd) throws SQLException {
+      this._connection = DriverManager.getConnection(url, user, passwd);
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      applyQueryClass(QueryClass.INTERACTIVE);
+   }//end AirlineManagement
+
+   /**
+    * Classes of operations, each with its own statement timeout (0 means no
+    * limit).  Heavy classes must also be admitted by the admission controller
+    * before they run, so a burst of reports cannot starve bookings and logins.
+    */
+   public enum QueryClass {
+      INTERACTIVE (5, false),
+      REPORT (60, true),
+      BULK (0, true);
+
+      public final int timeoutSeconds;
+      public final boolean heavy;
+
+      QueryClass(int timeoutSeconds, boolean heavy) {
+         this.timeoutSeconds = timeoutSeconds;
+         this.heavy = heavy;
+      }
+   }//end QueryClass
+
+   /**
+    * A unit of work run under a query class by runGoverned, given the
+    * instance it runs on.
+    */
+   public interface Operation {
+      void run(AirlineManagement esql) throws Exception;
+   }//end Operation
+
+   // at most this many heavy operations run at once across all clients of the database
+   private static final int ADMISSION_SLOTS = 2;
+   // advisory lock key space holding the admission slots
+   private static final int ADMISSION_LOCK_SPACE = 166003;
+   private static final long ADMISSION_WAIT_MS = 10000;
+
+   private QueryClass _queryClass = null;
+   // statement currently executing on this connection, for cancellation
+   private volatile Statement _activeStatement = null;
+   // set while a heavy operation has not issued its first statement yet
+   private boolean _admissionPending = false;
+   // admission slot held by the running heavy operation, or -1
+   private int _admissionSlot = -1;
+
+   /**
+    * Method to run an operation under a query class.  Heavy classes must
+    * take one of the ADMISSION_SLOTS slots, held as a session level advisory
+    * lock so the cap holds across processes; if no slot frees up within
+    * ADMISSION_WAIT_MS the operation is rejected.  The slot is only taken
+    * when the operation issues its first statement, so prompts it reads
+    * before that do not hold one, and it is kept until the operation ends.
+    * When cancellable, pressing Enter on an empty line while one of its
+    * statements runs cancels that statement.
+    *
+    * @param queryClass the class deciding timeout and admission
+    * @param cancellable whether the user can cancel from the keyboard
+    * @param operation the work to run
+    * @throws Exception whatever the operation throws, or a SQLException when not admitted
+    */
+   public void runGoverned (QueryClass queryClass, boolean cancellable, Operation operation) throws Exception {
+      Thread canceller = cancellable ? startCanceller() : null;
+      QueryClass previous = this._queryClass;
+      try{
+         applyQueryClass(queryClass);
+         this._admissionPending = queryClass.heavy;
+         operation.run(this);
+      }finally{
+         this._admissionPending = false;
+         if (canceller != null)
+            canceller.interrupt();
+         try{
+            applyQueryClass(previous);
+         }finally{
+            if (this._admissionSlot >= 0){
+               int slot = this._admissionSlot;
+               this._admissionSlot = -1;
+               releaseAdmissionSlot(slot);
+            }
+         }
+      }//end try
+   }//end runGoverned
+
+   /*
+    * Takes the admission slot for a heavy operation before its first statement
+    */
+   private void admit() throws SQLException {
+      if (!this._admissionPending)
+         return;
+      // the slot queries below run through the same path
+      this._admissionPending = false;
+      try{
+         this._admissionSlot = acquireAdmissionSlot();
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for other reports to finish");
+      }
+   }//end admit
+
+   private int acquireAdmissionSlot() throws SQLException, InterruptedException {
+      long deadline = System.currentTimeMillis() + ADMISSION_WAIT_MS;
+      boolean waiting = false;
+      while (true){
+         for (int slot = 0; slot < ADMISSION_SLOTS; slot++){
+            List<List<String>> granted = executeQueryAndReturnResult(
+               "SELECT pg_try_advisory_lock(" + ADMISSION_LOCK_SPACE + ", " + slot + ")");
+            if (granted.get(0).get(0).equals("t"))
+               return slot;
+         }
+         if (System.currentTimeMillis() >= deadline)
+            throw new SQLException("Too many reports are running, try again later");
+         if (!waiting){
+            System.out.println("Waiting for other reports to finish...");
+            waiting = true;
+         }
+         Thread.sleep(100);
+      }
+   }//end acquireAdmissionSlot
+
+   private void releaseAdmissionSlot(int slot) throws SQLException {
+      executeQuery("SELECT pg_advisory_unlock(" + ADMISSION_LOCK_SPACE + ", " + slot + ")");
+   }//end releaseAdmissionSlot
+
+   private void applyQueryClass(QueryClass queryClass) throws SQLException {
+      if (queryClass == this._queryClass)
+         return;
+      this._queryClass = queryClass;
+      // the server side limit also covers drivers that ignore setQueryTimeout
+      executeUpdate("SET statement_timeout = " + (queryClass.timeoutSeconds * 1000));
+   }//end applyQueryClass
+
+   /*
+    * Watches the keyboard while a statement runs and cancels it when an empty
+    * line is entered.  Only the next character is peeked at, so any other
+    * input, typed ahead or piped, is left in place for the menus.
+    */
+   private Thread startCanceller() {
+      Thread canceller = new Thread(() -> {
+         try{
+            while (true){
+               if (this._activeStatement != null && in.ready() && takeEmptyLine())
+                  cancelRunningQuery();
+               Thread.sleep(50);
+            }
+         }catch (InterruptedException e){
+            // operation finished
+         }catch (Exception e){
+            System.err.println("Cancel failed: " + e.getMessage());
+         }
+      }, "query-canceller");
+      canceller.setDaemon(true);
+      canceller.start();
+      return canceller;
+   }//end startCanceller
+
+   /*
+    * Consumes the next input line if it is empty and a statement is still
+    * running; otherwise leaves the input untouched
+    */
+   private boolean takeEmptyLine() throws IOException {
+      in.mark(2);
+      int c = in.read();
+      if ((c != '\n' && c != '\r') || this._activeStatement == null){
+         in.reset();
+         return false;
+      }
+      if (c == '\r' && in.ready()){
+         in.mark(1);
+         if (in.read() != '\n')
+            in.reset();
+      }
+      return true;
+   }//end takeEmptyLine
+
+   /**
+    * Method to cancel the statement currently running on this connection, if any.
+    */
+   public void cancelRunningQuery() throws SQLException {
+      Statement active = this._activeStatement;
+      if (active != null){
+         System.out.println("Cancelling...");
+         active.cancel();
+      }
+   }//end cancelRunningQuery
+
+   /*
+    * Creates a statement carrying the timeout of the current query class
+    */
+   private Statement createStatement() throws SQLException {
+      Statement stmt = this._connection.createStatement ();
+      if (this._queryClass != null)
+         stmt.setQueryTimeout(this._queryClass.timeoutSeconds);
+      return stmt;
+   }//end createStatement
+
+   private ResultSet runQuery(Statement stmt, String query) throws SQLException {
+      admit();
+      this._activeStatement = stmt;
+      try{
+         return stmt.executeQuery (query);
+      }finally{
+         this._activeStatement = null;
+      }
+   }//end runQuery
+
+   private int runUpdate(Statement stmt, String sql) throws SQLException {
+      admit();
+      this._activeStatement = stmt;
+      try{
+         return stmt.executeUpdate (sql);
+      }finally{
+         this._activeStatement = null;
+      }
+   }//end runUpdate
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
     * @param sql the input SQL string
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
+   public int executeUpdate (String sql) throws SQLException {
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = createStatement ();
 
       // issues the update instruction
-      stmt.executeUpdate (sql);
+      int rowCount = runUpdate (stmt, sql);
 
       // close the instruction
       stmt.close ();
+      return rowCount;
    }//end executeUpdate
 
    /**
@@ -96,10 +361,10 @@ public class AirlineManagement {
     */
    public int executeQueryAndPrintResult (String query) throws SQLException {
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = createStatement ();
 
       // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+      ResultSet rs = runQuery (stmt, query);
 
       /*
        ** obtains the metadata object for the returned result set.  The metadata
@@ -139,10 +404,10 @@ public class AirlineManagement {
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = createStatement ();
 
       // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+      ResultSet rs = runQuery (stmt, query);
 
       /*
        ** obtains the metadata object for the returned result set.  The metadata
@@ -175,10 +440,10 @@ public class AirlineManagement {
     */
    public int executeQuery (String query) throws SQLException {
        // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+       Statement stmt = createStatement ();
 
        // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+       ResultSet rs = runQuery (stmt, query);
 
        int rowCount = 0;
 
@@ -208,10 +473,818 @@ public class AirlineManagement {
 	return -1;
    }
 
+   /**
+    * Method to allocate a block of reservation ids from reservation_seq in a
+    * single round-trip.
+    *
+    * @param count the number of ids to allocate
+    * @return the allocated ids, formatted as R0001, R0002, ...
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<String> allocateReservationIDs(int count) throws SQLException {
+      List<String> ids = new ArrayList<String>();
+      List<List<String>> result = executeQueryAndReturnResult(
+         "SELECT nextval('reservation_seq') FROM generate_series(1, " + count + ")");
+      for (List<String> row : result)
+         ids.add(String.format("R%04d", Long.parseLong(row.get(0))));
+      return ids;
+   }//end allocateReservationIDs
+
+   /**
+    * Method to book one customer on a flight instance: reserved while seats
+    * are left, otherwise waitlisted.  The flight instance row is locked
+    * before the seats are counted, as bookGroup does, so concurrent bookings
+    * cannot oversell it.  Must run inside a transaction.
+    *
+    * @return the status of the new reservation
+    * @throws java.sql.SQLException when the booking failed
+    */
+   public String bookSeat(String customerID, String flightInstanceID) throws SQLException {
+      String seatsQuery = "SELECT SeatsTotal, SeatsSold FROM FlightInstance WHERE FlightInstanceID = '" + flightInstanceID + "' FOR UPDATE";
+      List<List<String>> seats = executeQueryAndReturnResult(seatsQuery);
+      if (seats.isEmpty())
+         throw new SQLException("No such flight instance: " + flightInstanceID);
+      int numSeatsTotal = Integer.parseInt(seats.get(0).get(0));
+      int numSeatsSold = Integer.parseInt(seats.get(0).get(1));
+
+      String reservationID = allocateReservationIDs(1).get(0);
+      String status = numSeatsSold < numSeatsTotal ? "reserved" : "waitlist";
+      String addReservation = "INSERT INTO Reservation (ReservationID, CustomerID, FlightInstanceID, Status) VALUES ('" + reservationID + "', '" + customerID + "', '" + flightInstanceID + "', '" + status + "');";
+      executeUpdate(addReservation);
+      if (status.equals("reserved")) {
+         String updateTickets = "UPDATE FlightInstance SET SeatsSold = SeatsSold + 1 WHERE FlightInstanceID = '" + flightInstanceID + "'";
+         executeUpdate(updateTickets);
+      }
+      return status;
+   }//end bookSeat
+
+   /**
+    * Method to book a group of customers on a flight instance.  The flight
+    * instance row is locked, ids are allocated as one block, all reservations
+    * go in with one multi-row INSERT and SeatsSold is adjusted once.  The
+    * split is deterministic: customers are reserved in the order given while
+    * seats remain and the rest are waitlisted.  Must run inside a transaction.
+    *
+    * @param customerIDs the customers to book, in priority order
+    * @param flightInstanceID the flight instance
+    * @return the new reservation ids and how many of them are reserved
+    * @throws java.sql.SQLException when the booking failed
+    */
+   public GroupBooking bookGroup(List<String> customerIDs, String flightInstanceID) throws SQLException {
+      List<List<String>> seats = executeQueryAndReturnResult(
+         "SELECT SeatsTotal, SeatsSold FROM FlightInstance WHERE FlightInstanceID = " + flightInstanceID + " FOR UPDATE");
+      if (seats.isEmpty())
+         throw new SQLException("No such flight instance: " + flightInstanceID);
+      int free = Math.max(0, Integer.parseInt(seats.get(0).get(0)) - Integer.parseInt(seats.get(0).get(1)));
+      int reserved = Math.min(free, customerIDs.size());
+
+      List<String> ids = allocateReservationIDs(customerIDs.size());
+      StringBuilder insert = new StringBuilder("INSERT INTO Reservation (ReservationID, CustomerID, FlightInstanceID, Status) VALUES ");
+      for (int i = 0; i < customerIDs.size(); i++) {
+         if (i > 0) insert.append(", ");
+         insert.append("('").append(ids.get(i)).append("', ").append(customerIDs.get(i)).append(", ")
+               .append(flightInstanceID).append(", '").append(i < reserved ? "reserved" : "waitlist").append("')");
+      }
+      executeUpdate(insert.toString());
+      if (reserved > 0)
+         executeUpdate("UPDATE FlightInstance SET SeatsSold = SeatsSold + " + reserved + " WHERE FlightInstanceID = " + flightInstanceID);
+      return new GroupBooking(ids, reserved);
+   }//end bookGroup
+
+   /**
+    * Method to promote the oldest waitlisted reservations into free seats in
+    * one set-based statement.  Flight instances are locked FOR UPDATE SKIP
+    * LOCKED, so concurrent promoters (or cancellations) working on other
+    * flights never wait on each other and a flight already being handled is
+    * simply skipped.  SeatsSold is raised by the number promoted per flight.
+    *
+    * @param flightFilter an extra condition on FlightInstance f, or null for all flights
+    * @return the number of reservations promoted
+    * @throws java.sql.SQLException when the promotion failed
+    */
+   public int promoteWaitlist(String flightFilter) throws SQLException {
+      String query =
+         "WITH open_flights AS (" +
+         "   SELECT f.FlightInstanceID, f.SeatsTotal - f.SeatsSold AS FreeSeats FROM FlightInstance f" +
+         "   WHERE f.SeatsSold < f.SeatsTotal" +
+         "   AND EXISTS (SELECT 1 FROM Reservation w WHERE w.FlightInstanceID = f.FlightInstanceID AND w.Status = 'waitlist')" +
+         (flightFilter == null ? "" : "   AND " + flightFilter) +
+         "   FOR UPDATE SKIP LOCKED), " +
+         "candidates AS (" +
+         "   SELECT r.ReservationID, o.FreeSeats, ROW_NUMBER() OVER (PARTITION BY r.FlightInstanceID ORDER BY " + RESERVATION_AGE + ") AS Position" +
+         "   FROM Reservation r join open_flights o on o.FlightInstanceID = r.FlightInstanceID WHERE r.Status = 'waitlist'), " +
+         "promoted AS (" +
+         "   UPDATE Reservation r SET Status = 'reserved' FROM candidates c" +
+         "   WHERE r.ReservationID = c.ReservationID AND c.Position <= c.FreeSeats RETURNING r.FlightInstanceID), " +
+         "counts AS (SELECT FlightInstanceID, COUNT(*) AS Promoted FROM promoted GROUP BY FlightInstanceID) " +
+         "UPDATE FlightInstance f SET SeatsSold = f.SeatsSold + c.Promoted FROM counts c " +
+         "WHERE f.FlightInstanceID = c.FlightInstanceID RETURNING c.Promoted";
+      int promoted = 0;
+      for (List<String> row : executeQueryAndReturnResult(query))
+         promoted += Integer.parseInt(row.get(0));
+      return promoted;
+   }//end promoteWaitlist
+
+   // reservations are numbered in booking order, so the numeric part of the id orders them by age
+   private static final String RESERVATION_AGE = "CAST(SUBSTRING(r.ReservationID FROM 2) AS INTEGER)";
+
+   /**
+    * Method to cancel a reservation.  A reserved seat is released and handed
+    * to the oldest waitlisted reservation on the same flight.  The flight
+    * instance is locked first, the same order promoteWaitlist uses.  Must run
+    * inside a transaction.
+    *
+    * @param reservationID the reservation to cancel
+    * @return the number of waitlisted reservations promoted
+    * @throws java.sql.SQLException when the reservation cannot be cancelled
+    */
+   public int cancelReservation(String reservationID) throws SQLException {
+      List<List<String>> reservation = executeQueryAndReturnResult(
+         "SELECT FlightInstanceID FROM Reservation WHERE ReservationID = '" + reservationID + "'");
+      if (reservation.isEmpty())
+         throw new SQLException("No such reservation: " + reservationID);
+      String flightInstanceID = reservation.get(0).get(0);
+
+      executeQuery("SELECT FlightInstanceID FROM FlightInstance WHERE FlightInstanceID = " + flightInstanceID + " FOR UPDATE");
+      String status = executeQueryAndReturnResult(
+         "SELECT Status FROM Reservation WHERE ReservationID = '" + reservationID + "' FOR UPDATE").get(0).get(0);
+      if (!status.equals("reserved") && !status.equals("waitlist"))
+         throw new SQLException("Reservation " + reservationID + " is already " + status);
+
+      executeUpdate("UPDATE Reservation SET Status = 'cancelled' WHERE ReservationID = '" + reservationID + "'");
+      if (!status.equals("reserved"))
+         return 0;
+      executeUpdate("UPDATE FlightInstance SET SeatsSold = SeatsSold - 1 WHERE FlightInstanceID = " + flightInstanceID);
+      return promoteWaitlist("f.FlightInstanceID = " + flightInstanceID);
+   }//end cancelReservation
+
+   /**
+    * Method to create the FlightInstance rows Schedule implies for every day
+    * in a window, in one INSERT ... SELECT over generate_series joined to
+    * Schedule on the day of the week.  SeatsTotal and TicketCost come from
+    * the most specific matching InstanceRule (the rule matching more of the
+    * route first, then one matching the plane, then the newest), falling
+    * back to the flight's latest instance and then to the default rule, the
+    * newest one with plane and route left blank.  NumOfStops always comes
+    * from the latest instance.  Ids are drawn from flightinstance_seq, so
+    * the table is not locked and bookings carry on meanwhile.  Days that
+    * already have an instance are skipped, so re-running over the same
+    * window inserts nothing.  Must run inside a transaction.
+    *
+    * @param startDate first day of the window (YYYY-MM-DD)
+    * @param endDate last day of the window (YYYY-MM-DD)
+    * @return the number of flight instances created
+    * @throws java.sql.SQLException when the generation failed or there is no default rule
+    */
+   public int generateFlightInstances(String startDate, String endDate) throws SQLException {
+      List<List<String>> defaults = executeQueryAndReturnResult(
+         "SELECT SeatsTotal, TicketCost FROM InstanceRule WHERE PlaneID IS NULL AND DepartureCity IS NULL AND ArrivalCity IS NULL " +
+         "AND SeatsTotal IS NOT NULL AND TicketCost IS NOT NULL ORDER BY RuleID DESC LIMIT 1");
+      if (defaults.isEmpty())
+         throw new SQLException("No default rule: add a rule with plane and route left blank first");
+      String defaultSeats = defaults.get(0).get(0);
+      String defaultCost = defaults.get(0).get(1);
+
+      String insert =
+         "INSERT INTO FlightInstance (FlightInstanceID, FlightNumber, FlightDate, DepartedOnTime, ArrivedOnTime, SeatsTotal, SeatsSold, NumOfStops, TicketCost) " +
+         "SELECT nextval('flightinstance_seq'), n.* FROM (" +
+         "SELECT s.FlightNumber, d.Day, CAST(NULL AS BOOLEAN) AS DepartedOnTime, CAST(NULL AS BOOLEAN) AS ArrivedOnTime, " +
+         "       COALESCE(rule.SeatsTotal, latest.SeatsTotal, " + defaultSeats + ") AS SeatsTotal, 0 AS SeatsSold, " +
+         "       COALESCE(latest.NumOfStops, 0) AS NumOfStops, COALESCE(rule.TicketCost, latest.TicketCost, " + defaultCost + ") AS TicketCost " +
+         "FROM (SELECT CAST(g AS DATE) AS Day FROM generate_series(DATE '" + startDate + "', DATE '" + endDate + "', INTERVAL '1 day') g) d " +
+         "join (SELECT DISTINCT FlightNumber, DayOfWeek FROM Schedule) s on s.DayOfWeek = TRIM(TO_CHAR(d.Day, 'Day')) " +
+         "join Flight f on f.FlightNumber = s.FlightNumber " +
+         "LEFT JOIN LATERAL (SELECT ir.SeatsTotal, ir.TicketCost FROM InstanceRule ir " +
+         "   WHERE (ir.PlaneID IS NOT NULL OR ir.DepartureCity IS NOT NULL OR ir.ArrivalCity IS NOT NULL) " +
+         "   AND (ir.PlaneID IS NULL OR ir.PlaneID = f.PlaneID) " +
+         "   AND (ir.DepartureCity IS NULL OR ir.DepartureCity = f.DepartureCity) " +
+         "   AND (ir.ArrivalCity IS NULL OR ir.ArrivalCity = f.ArrivalCity) " +
+         "   ORDER BY CAST(ir.DepartureCity IS NOT NULL AS INTEGER) + CAST(ir.ArrivalCity IS NOT NULL AS INTEGER) DESC, " +
+         "            (ir.PlaneID IS NOT NULL) DESC, ir.RuleID DESC " +
+         "   LIMIT 1) rule ON TRUE " +
+         "LEFT JOIN LATERAL (SELECT i.SeatsTotal, i.NumOfStops, i.TicketCost FROM FlightInstance i " +
+         "   WHERE i.FlightNumber = s.FlightNumber ORDER BY i.FlightDate DESC LIMIT 1) latest ON TRUE " +
+         "WHERE NOT EXISTS (SELECT 1 FROM FlightInstance e WHERE e.FlightNumber = s.FlightNumber AND e.FlightDate = d.Day) " +
+         "ORDER BY d.Day, s.FlightNumber) n " +
+         "ON CONFLICT (FlightNumber, FlightDate) DO NOTHING";
+      return executeUpdate(insert);
+   }//end generateFlightInstances
+
+   /**
+    * The outcome of bookGroup: the first reservedCount ids are reserved, the
+    * rest waitlisted.
+    */
+   public static class GroupBooking {
+      public final List<String> reservationIDs;
+      public final int reservedCount;
+
+      GroupBooking(List<String> reservationIDs, int reservedCount) {
+         this.reservationIDs = reservationIDs;
+         this.reservedCount = reservedCount;
+      }
+   }//end GroupBooking
+
+   /**
+    * Methods to group several statements into a single transaction on the
+    * shared connection. Every beginTransaction must be followed by either
+    * commitTransaction or rollbackTransaction, which restore autocommit.
+    *
+    * @throws java.sql.SQLException when the transaction state cannot be changed
+    */
+   public void beginTransaction() throws SQLException {
+      this._connection.setAutoCommit(false);
+   }//end beginTransaction
+
+   public void commitTransaction() throws SQLException {
+      this._connection.commit();
+      this._connection.setAutoCommit(true);
+   }//end commitTransaction
+
+   public void rollbackTransaction() {
+      try{
+         this._connection.rollback();
+         this._connection.setAutoCommit(true);
+      }catch (SQLException e){
+         System.err.println("Rollback failed: " + e.getMessage());
+      }//end try
+   }//end rollbackTransaction
+
+   /**
+    * Method to stream the result of a query into a file.  Rows are pulled from
+    * a server side cursor in fixed size chunks so the whole result never sits
+    * in memory, and written through a buffered FileChannel as either CSV or a
+    * compact typed binary format, optionally gzip compressed.
+    *
+    * Binary layout: "AMX2", column count (short), then per column its name
+    * (UTF) and a type byte, then for every row a 1 byte marker followed by
+    * each value.  Values are varints (unsigned LEB128) where 0 means NULL:
+    * integers as zigzag + 1, dates as zigzag days since 1970-01-01 + 1,
+    * booleans as 1 (false) or 2 (true), decimals as scale + 1 followed by the
+    * length and bytes of the unscaled two's complement value, and everything
+    * else as UTF-8 length + 1 followed by the bytes.  A 0 byte marker
+    * terminates the file.
+    *
+    * @param query the input query string
+    * @param path the output file
+    * @param binary true for the binary format, false for CSV
+    * @param gzip true to gzip the output
+    * @return the number of rows exported
+    * @throws java.sql.SQLException when failed to execute the query
+    * @throws java.io.IOException when failed to write the file
+    */
+   public long exportQueryToFile (String query, String path, boolean binary, boolean gzip) throws SQLException, IOException {
+      long rowCount = 0;
+      FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+      OutputStream raw = Channels.newOutputStream(channel);
+      if (gzip)
+         raw = new GZIPOutputStream(raw, EXPORT_BUFFER_SIZE);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(raw, EXPORT_BUFFER_SIZE));
+
+      beginTransaction();
+      try{
+         executeUpdate("DECLARE export_cursor NO SCROLL CURSOR FOR " + query);
+         Statement stmt = createStatement ();
+         boolean outputHeader = true;
+         byte[] types = null;
+         while (true){
+            ResultSet rs = runQuery (stmt, "FETCH FORWARD " + EXPORT_FETCH_SIZE + " FROM export_cursor");
+            ResultSetMetaData rsmd = rs.getMetaData ();
+            int numCol = rsmd.getColumnCount ();
+            if (outputHeader){
+               types = exportTypes(rsmd);
+               writeExportHeader(out, rsmd, types, binary);
+               outputHeader = false;
+            }
+            int fetched = 0;
+            while (rs.next()){
+               writeExportRow(out, rs, types, binary);
+               ++fetched;
+            }//end while
+            rs.close();
+            rowCount += fetched;
+            if (fetched < EXPORT_FETCH_SIZE)
+               break;
+         }//end while
+         stmt.close();
+         executeUpdate("CLOSE export_cursor");
+         commitTransaction();
+         if (binary)
+            out.writeByte(0);
+      }catch (SQLException | IOException e){
+         rollbackTransaction();
+         throw e;
+      }finally{
+         out.close();
+      }//end try
+      return rowCount;
+   }//end exportQueryToFile
+
+   private static final int EXPORT_FETCH_SIZE = 5000;
+   private static final int EXPORT_BUFFER_SIZE = 1 << 16;
+
+   // column encodings of the binary export format
+   private static final byte EXPORT_TEXT = 0;
+   private static final byte EXPORT_INTEGER = 1;
+   private static final byte EXPORT_BOOLEAN = 2;
+   private static final byte EXPORT_DATE = 3;
+   private static final byte EXPORT_DECIMAL = 4;
+
+   private static byte[] exportTypes(ResultSetMetaData rsmd) throws SQLException {
+      byte[] types = new byte[rsmd.getColumnCount ()];
+      for (int i=1; i<=types.length; ++i){
+         switch (rsmd.getColumnType(i)){
+            case java.sql.Types.SMALLINT: case java.sql.Types.INTEGER:
+               types[i-1] = EXPORT_INTEGER; break;
+            case java.sql.Types.BIT: case java.sql.Types.BOOLEAN:
+               types[i-1] = EXPORT_BOOLEAN; break;
+            case java.sql.Types.DATE:
+               types[i-1] = EXPORT_DATE; break;
+            case java.sql.Types.NUMERIC: case java.sql.Types.DECIMAL:
+               types[i-1] = EXPORT_DECIMAL; break;
+            default:
+               types[i-1] = EXPORT_TEXT; break;
+         }
+      }
+      return types;
+   }//end exportTypes
+
+   private static void writeExportHeader(DataOutputStream out, ResultSetMetaData rsmd, byte[] types, boolean binary) throws SQLException, IOException {
+      int numCol = rsmd.getColumnCount ();
+      if (binary){
+         out.writeBytes("AMX2");
+         out.writeShort(numCol);
+         for (int i=1; i<=numCol; ++i){
+            out.writeUTF(rsmd.getColumnName(i));
+            out.writeByte(types[i-1]);
+         }
+         return;
+      }
+      for (int i=1; i<=numCol; ++i){
+         if (i > 1) out.writeByte(',');
+         out.write(csvField(rsmd.getColumnName(i)).getBytes(StandardCharsets.UTF_8));
+      }
+      out.writeByte('\n');
+   }//end writeExportHeader
+
+   private static void writeExportRow(DataOutputStream out, ResultSet rs, byte[] types, boolean binary) throws SQLException, IOException {
+      int numCol = types.length;
+      if (binary){
+         out.writeByte(1);
+         for (int i=1; i<=numCol; ++i)
+            writeExportValue(out, rs, i, types[i-1]);
+         return;
+      }
+      for (int i=1; i<=numCol; ++i){
+         if (i > 1) out.writeByte(',');
+         String value = rs.getString(i);
+         if (value != null)
+            out.write(csvField(value).getBytes(StandardCharsets.UTF_8));
+      }
+      out.writeByte('\n');
+   }//end writeExportRow
+
+   private static void writeExportValue(DataOutputStream out, ResultSet rs, int i, byte type) throws SQLException, IOException {
+      switch (type){
+         case EXPORT_INTEGER:
+            long number = rs.getLong(i);
+            writeVarint(out, rs.wasNull() ? 0 : zigzag(number) + 1);
+            return;
+         case EXPORT_BOOLEAN:
+            boolean flag = rs.getBoolean(i);
+            out.writeByte(rs.wasNull() ? 0 : flag ? 2 : 1);
+            return;
+         case EXPORT_DATE:
+            java.sql.Date date = rs.getDate(i);
+            writeVarint(out, date == null ? 0 : zigzag(date.toLocalDate().toEpochDay()) + 1);
+            return;
+         case EXPORT_DECIMAL:
+            java.math.BigDecimal decimal = rs.getBigDecimal(i);
+            if (decimal == null){
+               writeVarint(out, 0);
+            }else{
+               byte[] unscaled = decimal.unscaledValue().toByteArray();
+               writeVarint(out, zigzag(decimal.scale()) + 1);
+               writeVarint(out, unscaled.length);
+               out.write(unscaled);
+            }
+            return;
+         default:
+            String value = rs.getString(i);
+            if (value == null){
+               writeVarint(out, 0);
+            }else{
+               byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+               writeVarint(out, bytes.length + 1L);
+               out.write(bytes);
+            }
+      }
+   }//end writeExportValue
+
+   private static long zigzag(long value) {
+      return (value << 1) ^ (value >> 63);
+   }//end zigzag
+
+   // unsigned LEB128: 7 bits per byte, high bit set on all but the last byte
+   private static void writeVarint(DataOutputStream out, long value) throws IOException {
+      while ((value & ~0x7FL) != 0){
+         out.writeByte((int) ((value & 0x7F) | 0x80));
+         value >>>= 7;
+      }
+      out.writeByte((int) value);
+   }//end writeVarint
+
+   private static String csvField(String value) {
+      if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+         return value;
+      return "\"" + value.replace("\"", "\"\"") + "\"";
+   }//end csvField
+
+   /**
+    * A query result kept in the cache: column names and the rows.
+    */
+   public static class CachedResult {
+      public final List<String> columns;
+      public final List<List<String>> rows;
+
+      CachedResult(List<String> columns, List<List<String>> rows) {
+         this.columns = columns;
+         this.rows = rows;
+      }
+   }//end CachedResult
+
+   /**
+    * Method to execute a query through the result cache.  Results are cached
+    * under the table and key whose changes make them stale, e.g. ("Plane",
+    * "PL001").  Caching is only used while the invalidation listener is
+    * connected; otherwise the query always goes to the DBMS.
+    *
+    * @param table the table the result depends on
+    * @param key the key value the result depends on
+    * @param query the input query string
+    * @return the query result
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public CachedResult executeQueryAndReturnCachedResult (String table, String key, String query) throws SQLException {
+      String group = table.toLowerCase() + ":" + key;
+      boolean caching = this._cacheListener != null && this._cacheListener.isListening();
+      if (caching){
+         Map<String, CachedResult> entries = this._cache.get(group);
+         CachedResult cached = entries == null ? null : entries.get(query);
+         if (cached != null)
+            return cached;
+      }
+
+      // an invalidation that arrives while the query runs must win over this result
+      long generation = this._cacheGeneration.get();
+      Statement stmt = createStatement ();
+      ResultSet rs = runQuery (stmt, query);
+      ResultSetMetaData rsmd = rs.getMetaData ();
+      int numCol = rsmd.getColumnCount ();
+      List<String> columns = new ArrayList<String>();
+      for (int i=1; i<=numCol; ++i)
+         columns.add(rsmd.getColumnName(i));
+      List<List<String>> rows = new ArrayList<List<String>>();
+      while (rs.next()){
+         List<String> record = new ArrayList<String>();
+         for (int i=1; i<=numCol; ++i)
+            record.add(rs.getString (i));
+         rows.add(record);
+      }//end while
+      stmt.close ();
+
+      CachedResult result = new CachedResult(columns, rows);
+      if (caching){
+         synchronized (this._cache){
+            if (this._cacheGeneration.get() == generation)
+               this._cache.computeIfAbsent(group, g -> new ConcurrentHashMap<String, CachedResult>()).put(query, result);
+         }
+      }
+      return result;
+   }//end executeQueryAndReturnCachedResult
+
+   /**
+    * Method to evict cached results.  A null key evicts every entry of the
+    * table, a null table evicts everything.
+    */
+   public void invalidateCache (String table, String key) {
+      synchronized (this._cache){
+         this._cacheGeneration.incrementAndGet();
+         if (table == null){
+            this._cache.clear();
+         }else if (key == null){
+            String prefix = table.toLowerCase() + ":";
+            this._cache.keySet().removeIf(group -> group.startsWith(prefix));
+         }else{
+            this._cache.remove(table.toLowerCase() + ":" + key);
+         }
+      }
+   }//end invalidateCache
+
+   /**
+    * Method to start the background listener that keeps the cache in step
+    * with changes made by other processes.
+    *
+    * @param verbose print every invalidation received
+    */
+   public void startCacheInvalidationListener (boolean verbose) {
+      if (this._cacheListener == null){
+         this._cacheListener = new CacheInvalidationListener(this, verbose);
+         this._cacheListener.start();
+      }
+   }//end startCacheInvalidationListener
+
+   /**
+    * Background thread that LISTENs on the invalidation channels raised by the
+    * triggers in create_tables.sql and evicts the affected cache entries.  It
+    * uses its own connection; if that connection drops, caching is suspended,
+    * and after reconnecting the whole cache is flushed because notifications
+    * sent in between were lost.
+    */
+   private static class CacheInvalidationListener extends Thread {
+      private static final String[] TABLES = {"plane", "schedule", "repair"};
+      private static final long POLL_INTERVAL_MS = 1000;
+      private static final long RECONNECT_DELAY_MS = 1000;
+
+      private final AirlineManagement owner;
+      private final boolean verbose;
+      private volatile boolean running = true;
+      private volatile boolean listening = false;
+
+      CacheInvalidationListener(AirlineManagement owner, boolean verbose) {
+         super("cache-invalidation-listener");
+         setDaemon(true);
+         this.owner = owner;
+         this.verbose = verbose;
+      }
+
+      boolean isListening() {
+         return this.listening;
+      }
+
+      void shutdown() {
+         this.running = false;
+         this.interrupt();
+      }
+
+      public void run() {
+         while (this.running){
+            Connection conn = null;
+            try{
+               conn = DriverManager.getConnection(owner._url, owner._user, owner._passwd);
+               Statement stmt = conn.createStatement();
+               for (String table : TABLES)
+                  stmt.execute("LISTEN cache_" + table);
+               // anything cached before this point may have missed notifications
+               owner.invalidateCache(null, null);
+               this.listening = true;
+               if (this.verbose)
+                  System.out.println("Listening for cache invalidations");
+               while (this.running){
+                  // older drivers only pick up notifications on a round-trip; an
+                  // empty query is the cheapest one, and a second of staleness is fine
+                  stmt.execute("");
+                  Object[] notifications = (Object[]) Class.forName("org.postgresql.PGConnection").getMethod("getNotifications").invoke(conn);
+                  if (notifications != null){
+                     for (Object notification : notifications)
+                        evict(notification);
+                  }
+                  Thread.sleep(POLL_INTERVAL_MS);
+               }
+            }catch (InterruptedException e){
+               // shutting down
+            }catch (Exception e){
+               if (this.running)
+                  System.err.println("Cache invalidation listener lost connection: " + e.getMessage());
+            }finally{
+               this.listening = false;
+               try{
+                  if (conn != null) conn.close();
+               }catch (SQLException e){
+                  // ignored.
+               }
+            }
+            if (this.running){
+               try{
+                  Thread.sleep(RECONNECT_DELAY_MS);
+               }catch (InterruptedException e){
+                  // shutting down
+               }
+            }
+         }
+      }
+
+      private void evict(Object notification) throws Exception {
+         // look methods up on the driver's public interface; the implementation classes may not be public
+         Class<?> type = Class.forName("org.postgresql.PGNotification");
+         String table = ((String) type.getMethod("getName").invoke(notification)).substring("cache_".length());
+         // drivers without payload support can only say which table changed
+         String key = null;
+         try{
+            key = (String) type.getMethod("getParameter").invoke(notification);
+         }catch (NoSuchMethodException e){
+            key = null;
+         }
+         if (key != null && key.isEmpty())
+            key = null;
+         owner.invalidateCache(table, key);
+         if (this.verbose)
+            System.out.println("Invalidated " + table + ":" + (key == null ? "*" : key));
+      }
+   }//end CacheInvalidationListener
+
+   /**
+    * Method to record an audit event.  The event is only queued here; the
+    * AuditLog writer thread inserts it in a later batch.
+    *
+    * @param type what happened, e.g. login or reservation
+    * @param actor who did it
+    * @param outcome how it ended
+    * @param detail free text details, may be null
+    */
+   public void audit (String type, String actor, String outcome, String detail) {
+      AuditLog log = this._auditLog;
+      if (log == null){
+         synchronized (this){
+            if (this._auditLog == null){
+               this._auditLog = new AuditLog(this._url, this._user, this._passwd, false);
+               this._auditLog.start();
+            }
+            log = this._auditLog;
+         }
+      }
+      log.record(type, actor, outcome, detail);
+   }//end audit
+
+   /**
+    * Asynchronous batched writer for the append-only AuditEvent table.
+    *
+    * Producers reserve room in a bounded lock-free queue with a CAS on the
+    * size counter and append to a ConcurrentLinkedQueue, so recording an
+    * event never takes a lock or touches the database.  When the queue is
+    * full, producers park until the writer drains it (backpressure) rather
+    * than dropping events.  The writer thread flushes a batch as one
+    * multi-row INSERT, i.e. one commit for the whole batch, when BATCH_SIZE
+    * events are waiting or FLUSH_INTERVAL_MS has passed, and drains the
+    * queue completely on close().  Events recorded after that are reported
+    * on stderr, since nothing is left to write them.
+    */
+   static class AuditLog extends Thread {
+      static final int CAPACITY = 1 << 16;
+      static final int BATCH_SIZE = 500;
+      static final long FLUSH_INTERVAL_MS = 200;
+      private static final int MAX_ATTEMPTS = 3;
+
+      private static class Event {
+         final long time;
+         final String type, actor, outcome, detail;
+
+         Event(long time, String type, String actor, String outcome, String detail) {
+            this.time = time;
+            this.type = type;
+            this.actor = actor;
+            this.outcome = outcome;
+            this.detail = detail;
+         }
+      }
+
+      private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<Event>();
+      private final AtomicInteger size = new AtomicInteger();
+      private final String url, user, passwd;
+      // write to a session private copy of AuditEvent instead of the real log
+      private final boolean scratch;
+      private volatile boolean running = true;
+      private Connection conn = null;
+
+      AuditLog(String url, String user, String passwd, boolean scratch) {
+         super("audit-log-writer");
+         setDaemon(true);
+         this.url = url;
+         this.user = user;
+         this.passwd = passwd;
+         this.scratch = scratch;
+      }
+
+      void record(String type, String actor, String outcome, String detail) {
+         while (true){
+            if (!this.running || !this.isAlive()){
+               System.err.println("Audit log closed, event not recorded: " + type + " by " + actor + ", " + outcome +
+                                  (detail == null ? "" : ", " + detail));
+               return;
+            }
+            int n = this.size.get();
+            if (n < CAPACITY && this.size.compareAndSet(n, n + 1)){
+               this.queue.offer(new Event(System.currentTimeMillis(), type, actor, outcome, detail));
+               if (n + 1 == BATCH_SIZE)
+                  LockSupport.unpark(this);
+               return;
+            }
+            LockSupport.unpark(this);
+            LockSupport.parkNanos(100000);
+         }
+      }
+
+      /*
+       * Stops accepting new work and waits until every queued event is written
+       */
+      void close() {
+         this.running = false;
+         LockSupport.unpark(this);
+         try{
+            this.join();
+         }catch (InterruptedException e){
+            // ignored.
+         }
+         // events recorded while the writer was finishing its last batch
+         if (!this.queue.isEmpty())
+            System.err.println("Audit log closed, " + this.queue.size() + " event(s) recorded during shutdown were not written");
+      }
+
+      public void run() {
+         long lastFlush = System.currentTimeMillis();
+         List<Event> batch = new ArrayList<Event>(BATCH_SIZE);
+         while (true){
+            boolean stopping = !this.running;
+            int waiting = this.size.get();
+            long now = System.currentTimeMillis();
+            if (waiting >= BATCH_SIZE || (waiting > 0 && (stopping || now - lastFlush >= FLUSH_INTERVAL_MS))){
+               Event event;
+               while (batch.size() < BATCH_SIZE && (event = this.queue.poll()) != null)
+                  batch.add(event);
+               // a producer may have reserved room but not appended yet
+               if (batch.isEmpty()){
+                  Thread.yield();
+                  continue;
+               }
+               this.size.addAndGet(-batch.size());
+               write(batch);
+               batch.clear();
+               lastFlush = now;
+               continue;
+            }
+            if (stopping)
+               break;
+            LockSupport.parkNanos(this, FLUSH_INTERVAL_MS * 1000000L);
+         }
+         try{
+            if (this.conn != null) this.conn.close();
+         }catch (SQLException e){
+            // ignored.
+         }
+      }
+
+      private void write(List<Event> batch) {
+         StringBuilder insert = new StringBuilder("INSERT INTO AuditEvent (EventTime, EventType, Actor, Outcome, Detail) VALUES ");
+         for (int i = 0; i < batch.size(); i++){
+            Event event = batch.get(i);
+            if (i > 0) insert.append(", ");
+            insert.append("(to_timestamp(").append(event.time).append(" / 1000.0), ")
+                  .append(literal(event.type)).append(", ").append(literal(event.actor)).append(", ")
+                  .append(literal(event.outcome)).append(", ").append(literal(event.detail)).append(")");
+         }
+         for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++){
+            try{
+               if (this.conn == null || this.conn.isClosed())
+                  connect();
+               Statement stmt = this.conn.createStatement();
+               stmt.executeUpdate(insert.toString());
+               stmt.close();
+               return;
+            }catch (SQLException e){
+               System.err.println("Audit log write failed (attempt " + attempt + "): " + e.getMessage());
+               try{
+                  if (this.conn != null) this.conn.close();
+               }catch (SQLException ignored){
+                  // ignored.
+               }
+               this.conn = null;
+            }
+         }
+         System.err.println("Audit log dropped " + batch.size() + " event(s)");
+      }
+
+      private void connect() throws SQLException {
+         this.conn = DriverManager.getConnection(this.url, this.user, this.passwd);
+         if (this.scratch){
+            Statement stmt = this.conn.createStatement();
+            stmt.executeUpdate("CREATE TEMP TABLE AuditEvent (LIKE public.AuditEvent INCLUDING DEFAULTS)");
+            stmt.close();
+         }
+      }
+
+      private static String literal(String value) {
+         return value == null ? "NULL" : "'" + escapeLiteral(value) + "'";
+      }
+   }//end AuditLog
+
    /**
     * Method to close the physical connection if it is open.
     */
    public void cleanup(){
+      if (this._cacheListener != null)
+         this._cacheListener.shutdown();
+      if (this._auditLog != null)
+         this._auditLog.close();
       try{
          if (this._connection != null){
             this._connection.close ();
@@ -227,16 +1300,19 @@ public class AirlineManagement {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      if (args.length < 3) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             AirlineManagement.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [<command> <arguments>...]");
          return;
       }//end if
 
-      Greeting();
+      // any arguments after <user> run a single command instead of the menus
+      boolean batch = args.length > 3;
+      if (!batch)
+         Greeting();
       AirlineManagement esql = null;
       try{
          // use postgres JDBC driver.
@@ -248,6 +1324,12 @@ public class AirlineManagement {
          String user = args[2];
          esql = new AirlineManagement (dbname, dbport, user, "");
 
+         if (batch) {
+            runCommand(esql, Arrays.copyOfRange(args, 3, args.length));
+            return;
+         }//end if
+         esql.startCacheInvalidationListener(false);
+
          boolean keepon = true;
          while(keepon) {
             // These are sample SQL statements
@@ -282,18 +1364,36 @@ public class AirlineManagement {
                      System.out.println("8. Get all repairs made by a technician");
                      System.out.println("9. Get all repairs made on a plane");
                      System.out.println("10. View flight statistics");
+                     System.out.println("21. Export report to file");
+                     System.out.println("23. Look up a customer");
+                     System.out.println("25. Cancel a reservation");
+                     System.out.println("26. Change seat capacity of a flight");
+                     System.out.println("27. Promote waitlisted passengers");
+                     System.out.println("28. Run index advisor");
+                     System.out.println("29. Ingest flight status feed");
+                     System.out.println("30. Generate flight instances from schedule");
+                     System.out.println("31. Add default seats and fare rule");
                      System.out.println("20. Log out");
                      switch(readChoice()) {
                         case 1: getFlightSchedule(esql); break;
                         case 2: getFlightSeats(esql); break;
                         case 3: getFlightDepartureArrivalOnTime(esql); break;
-                        case 4: getFlightsOnDate(esql); break;
-                        case 5: getPassengerStatusOnFlight(esql); break;
+                        case 4: governed(esql, QueryClass.REPORT, AirlineManagement::getFlightsOnDate); break;
+                        case 5: governed(esql, QueryClass.REPORT, AirlineManagement::getPassengerStatusOnFlight); break;
                         case 6: getTravelerInfo(esql); break;
                         case 7: getPlaneInfo(esql); break;
-                        case 8: getTechnicianRepairs(esql); break;
-                        case 9: getPlaneRepairs(esql); break;
-                        case 10: getFlightStatistics(esql); break;
+                        case 8: governed(esql, QueryClass.REPORT, AirlineManagement::getTechnicianRepairs); break;
+                        case 9: governed(esql, QueryClass.REPORT, AirlineManagement::getPlaneRepairs); break;
+                        case 10: governed(esql, QueryClass.REPORT, AirlineManagement::getFlightStatistics); break;
+                        case 21: governed(esql, QueryClass.BULK, AirlineManagement::exportReport); break;
+                        case 23: findCustomer(esql); break;
+                        case 25: cancelReservation(esql); break;
+                        case 26: changeSeatCapacity(esql); break;
+                        case 27: governed(esql, QueryClass.BULK, AirlineManagement::promoteWaitlistedPassengers); break;
+                        case 28: governed(esql, QueryClass.BULK, AirlineManagement::runIndexAdvisor); break;
+                        case 29: ingestFlightStatusFeed(esql); break;
+                        case 30: governed(esql, QueryClass.BULK, AirlineManagement::generateFlightInstances); break;
+                        case 31: addInstanceRule(esql); break;
                         case 20: usermenu = false; break;
                         default : System.out.println("Unrecognized choice!"); break;
                      }
@@ -304,12 +1404,16 @@ public class AirlineManagement {
                      System.out.println("12. Search Flight Cost");
                      System.out.println("13. Search Flight Make and Model");
                      System.out.println("14. Make a reservation");
+                     System.out.println("24. Make a group reservation");
+                     System.out.println("25. Cancel a reservation");
                      System.out.println("20. Log out");
                      switch(readChoice()) {
                         case 11: getFlightInstanceOnDate(esql); break;
                         case 12: getTicketCost(esql); break;
                         case 13: getFlightMakeAndModel(esql); break;
                         case 14: makeReservation(esql); break;
+                        case 24: makeGroupReservation(esql); break;
+                        case 25: cancelReservation(esql); break;
                         case 20: usermenu = false; break;
 
                         default : System.out.println("Unrecognized choice!"); break;
@@ -331,11 +1435,15 @@ public class AirlineManagement {
                      System.out.println("16. View Repairs for a Plane");
                      System.out.println("17. View Maintenance Request by Pilot");
                      System.out.println("18. Log Repair Entry");
+                     System.out.println("19. View Open Maintenance Requests");
+                     System.out.println("22. Claim Open Maintenance Request");
                      System.out.println("20. Log out");
                      switch(readChoice()) {
                         case 16: viewRepairsForPlaneInRange(esql); break;
                         case 17: viewPilotMaintenanceRequests(esql); break;
                         case 18: logRepairEntry(esql); break;
+                        case 19: viewOpenMaintenanceRequests(esql); break;
+                        case 22: claimMaintenanceRequest(esql); break;
                         case 20: usermenu = false; break;
 
                         default : System.out.println("Unrecognized choice!"); break;
@@ -368,6 +1476,113 @@ public class AirlineManagement {
          "*******************************************************\n");
    }//end Greeting
 
+   /*
+    * Runs a menu action under a query class; heavy actions may be rejected
+    * when too many are already running
+    **/
+   public static void governed(AirlineManagement esql, QueryClass queryClass, Operation operation) {
+      try {
+         System.out.println("(press Enter while the query runs to cancel it)");
+         esql.runGoverned(queryClass, true, operation);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end governed
+
+   /*
+    * Runs a single non-interactive command given on the command line
+    **/
+   public static void runCommand(AirlineManagement esql, String[] command) {
+      try {
+         switch(command[0]) {
+            case "export":
+               String query = command.length < 4 ? null :
+                  exportQueryFor(command[1], Arrays.copyOfRange(command, 2, command.length - 1));
+               if (query == null) {
+                  System.err.println("Usage: export flights <start date> <end date> <file>\n" +
+                                     "       export manifest <flight number> <date> <file>\n" +
+                                     "       export repairs <plane id> <start date> <end date> <file>");
+                  return;
+               }
+               final String exportQuery = query;
+               esql.runGoverned(QueryClass.BULK, false, session -> exportToFile(session, exportQuery, command[command.length - 1]));
+               break;
+            case "bench-group-booking":
+               if (command.length < 2) {
+                  System.err.println("Usage: bench-group-booking <group size> [<rounds>]");
+                  return;
+               }
+               benchmarkGroupBooking(esql, Integer.parseInt(command[1]), command.length > 2 ? Integer.parseInt(command[2]) : 10);
+               break;
+            case "bench-waitlist-promotion":
+               if (command.length < 3) {
+                  System.err.println("Usage: bench-waitlist-promotion <flight instances> <waitlisted per instance>");
+                  return;
+               }
+               esql.runGoverned(QueryClass.BULK, false, session ->
+                  benchmarkWaitlistPromotion(session, Integer.parseInt(command[1]), Integer.parseInt(command[2])));
+               break;
+            case "bench-query-governance":
+               if (command.length < 3) {
+                  System.err.println("Usage: bench-query-governance <report threads> <seconds> [<max p99 ms>]");
+                  return;
+               }
+               benchmarkQueryGovernance(esql, Integer.parseInt(command[1]), Integer.parseInt(command[2]),
+                                        command.length > 3 ? Double.parseDouble(command[3]) : 100);
+               break;
+            case "bench-audit":
+               if (command.length < 2) {
+                  System.err.println("Usage: bench-audit <events>");
+                  return;
+               }
+               benchmarkAuditLog(esql, Integer.parseInt(command[1]));
+               break;
+            case "advise-indexes":
+               if (command.length < 2) {
+                  System.err.println("Usage: advise-indexes <output script>");
+                  return;
+               }
+               esql.runGoverned(QueryClass.BULK, false, session -> adviseIndexes(session, command[1]));
+               break;
+            case "ingest-status":
+               if (command.length < 2) {
+                  System.err.println("Usage: ingest-status <feed file, or - for stdin>");
+                  return;
+               }
+               if (command[1].equals("-")) {
+                  ingestFlightStatus(esql, in);
+               }
+               else {
+                  BufferedReader feed = new BufferedReader(new FileReader(command[1]));
+                  try {
+                     ingestFlightStatus(esql, feed);
+                  } finally {
+                     feed.close();
+                  }
+               }
+               break;
+            case "generate-instances":
+               if (command.length < 3) {
+                  System.err.println("Usage: generate-instances <start date> <end date>");
+                  return;
+               }
+               esql.runGoverned(QueryClass.BULK, false, session -> generateFlightInstances(session, command[1], command[2]));
+               break;
+            case "watch-invalidations":
+               // prints invalidations received from other processes until stdin is closed
+               esql.startCacheInvalidationListener(true);
+               while (in.readLine() != null) {
+               }
+               break;
+            default:
+               System.err.println("Unrecognized command: " + command[0]);
+               break;
+         }
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end runCommand
+
    /*
     * Reads the users choice given from the keyboard
     * @int
@@ -472,9 +1687,11 @@ public class AirlineManagement {
          if(count > 0) {
             List<List<String>> rolesList = new ArrayList<>();
             rolesList = esql.executeQueryAndReturnResult(query);
+            esql.audit("login", username, "success", rolesList.get(0).get(0));
             return rolesList.get(0).get(0);
          }
          else {
+            esql.audit("login", username, "failure", null);
             System.out.println("Username or password is incorrect, please try again");
             return null;
          }
@@ -493,12 +1710,12 @@ public class AirlineManagement {
          System.out.print("\tEnter flight number: ");
          String input = in.readLine();
          query = query + input + "'";
-         int count = esql.executeQuery(query);
-         if(count == 0) {
+         CachedResult result = esql.executeQueryAndReturnCachedResult("Schedule", input, query);
+         if(result.rows.isEmpty()) {
             System.out.println("No results found, try again");
          }
          else {
-            int rowCount = esql.executeQueryAndPrintResult(query);
+            int rowCount = printResult(result);
             System.out.println ("total row(s): " + rowCount);
          } 
       }catch(Exception e){
@@ -515,12 +1732,12 @@ public class AirlineManagement {
          System.out.print("\tEnter date (YYYY-MM-DD): ");
          String inputDate = in.readLine();
          query = query + "' AND FlightDate = DATE '" + inputDate + "'";
-         int count = esql.executeQuery(query);
-         if(count == 0) {
+         // not cached: seat counts change with every booking
+         int rowCount = esql.executeQueryAndPrintResult(query);
+         if(rowCount == 0) {
             System.out.println("No results found, try again");
          }
          else {
-            int rowCount = esql.executeQueryAndPrintResult(query);
             System.out.println ("total row(s): " + rowCount);
          } 
       
@@ -610,6 +1827,120 @@ public class AirlineManagement {
          System.err.println (e.getMessage());
       }
    }
+   /*
+    * Pages through customers matching a partial last name, first name, phone
+    * or zip. Name and phone inputs of three or more characters match anywhere
+    * (trigram indexes), everything else matches as a prefix. Pages are fetched by keyset on
+    * (search key, CustomerID) so every page is an index range scan, and each
+    * row carries the customer's upcoming reservations.
+    **/
+   public static void findCustomer(AirlineManagement esql) {
+      try {
+         System.out.println("Look up a customer");
+         System.out.println("1. By last name");
+         System.out.println("2. By first name");
+         System.out.println("3. By phone");
+         System.out.println("4. By zip");
+         // normalized search expression; the C collation lets the btree serve both LIKE 'x%' and the keyset order
+         String normalized = null;
+         boolean substring = true;
+         int choice = readChoice();
+         switch(choice) {
+            case 1: normalized = "lower(c.LastName)"; break;
+            case 2: normalized = "lower(c.FirstName)"; break;
+            case 3: normalized = "regexp_replace(c.Phone, '[^0-9]', '', 'g')"; break;
+            case 4: normalized = "c.Zip"; substring = false; break;
+            default:
+               System.out.println("Unrecognized choice!");
+               return;
+         }
+         String key = "(" + normalized + " COLLATE \"C\")";
+         System.out.print("\tEnter search text: ");
+         String text = in.readLine().trim().toLowerCase();
+         if (choice == 3)
+            text = text.replaceAll("[^0-9]", "");
+         if (text.isEmpty()) {
+            System.out.println("No search text given, try again");
+            return;
+         }
+         String filter = key + " LIKE '" + escapeLiteral(escapeLike(text)) + "%'";
+         if (substring && text.length() >= 3)
+            filter = normalized + " LIKE '%" + escapeLiteral(escapeLike(text)) + "%'";
+
+         String query = "SELECT c.CustomerID, c.FirstName, c.LastName, c.Phone, c.Zip, " +
+            "(SELECT string_agg(r.ReservationID || ' ' || f.FlightNumber || ' ' || f.FlightDate || ' ' || r.Status, ', ' ORDER BY f.FlightDate, r.ReservationID) " +
+            "FROM Reservation r join FlightInstance f on f.FlightInstanceID = r.FlightInstanceID " +
+            "WHERE r.CustomerID = c.CustomerID AND f.FlightDate >= CURRENT_DATE AND r.Status IN ('reserved', 'waitlist')) AS UpcomingReservations, " +
+            key + " AS SortKey FROM Customer c WHERE " + filter;
+
+         String lastKey = null;
+         String lastID = null;
+         int total = 0;
+         while (true) {
+            String page = query;
+            if (lastKey != null)
+               page = page + " AND (" + key + ", c.CustomerID) > ('" + escapeLiteral(lastKey) + "', " + lastID + ")";
+            page = page + " ORDER BY " + key + ", c.CustomerID LIMIT " + CUSTOMER_PAGE_SIZE;
+
+            List<List<String>> rows = esql.executeQueryAndReturnResult(page);
+            if (rows.isEmpty() && total == 0) {
+               System.out.println("No results found, try again");
+               return;
+            }
+            if (total == 0)
+               System.out.println("CustomerID\tFirstName\tLastName\tPhone\tZip\tUpcomingReservations");
+            for (List<String> row : rows) {
+               System.out.println(String.join("\t", row.subList(0, 6)));
+               lastID = row.get(0);
+               lastKey = row.get(6);
+            }
+            total += rows.size();
+            if (rows.size() < CUSTOMER_PAGE_SIZE)
+               break;
+            System.out.print("\tPress Enter for more results or q to stop: ");
+            if (in.readLine().trim().equalsIgnoreCase("q"))
+               break;
+         }
+         System.out.println ("total row(s): " + total);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }
+
+   private static final int CUSTOMER_PAGE_SIZE = 10;
+
+   /*
+    * Prints a cached result the same way executeQueryAndPrintResult does
+    * @return the number of rows printed
+    **/
+   public static int printResult(CachedResult result) {
+      if (!result.rows.isEmpty()) {
+         for (String column : result.columns)
+            System.out.print(column + "\t");
+         System.out.println();
+      }
+      for (List<String> row : result.rows) {
+         for (String value : row)
+            System.out.print(value + "\t");
+         System.out.println();
+      }
+      return result.rows.size();
+   }
+
+   /*
+    * Doubles single quotes so a value can be embedded in a SQL string literal
+    **/
+   public static String escapeLiteral(String value) {
+      return value.replace("'", "''");
+   }
+
+   /*
+    * Escapes the LIKE wildcards in user input so it matches literally
+    **/
+   public static String escapeLike(String value) {
+      return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+   }
+
    public static void getPlaneInfo(AirlineManagement esql) {
       try {
          System.out.println("Get plane information");
@@ -617,12 +1948,12 @@ public class AirlineManagement {
          System.out.print("\t Enter PlaneID: ");
          String input = in.readLine();
          query = query + input + "'";
-         int count = esql.executeQuery(query);
-         if(count == 0) {
+         CachedResult result = esql.executeQueryAndReturnCachedResult("Plane", input, query);
+         if(result.rows.isEmpty()) {
             System.out.println("No such plane, try again");
          }
          else {
-            int rowCount = esql.executeQueryAndPrintResult(query);
+            int rowCount = printResult(result);
             System.out.println ("total row(s): " + rowCount);
          } 
       }catch(Exception e){
@@ -659,12 +1990,12 @@ public class AirlineManagement {
          System.out.print("\t Enter end date for range (YYYY-MM-DD): ");
          String endDate = in.readLine();
          query = query + plane + "' AND RepairDate >= '" + startDate + "' AND RepairDate <= '" + endDate + "'";
-         int count = esql.executeQuery(query);
-         if(count == 0) {
+         CachedResult result = esql.executeQueryAndReturnCachedResult("Repair", plane, query);
+         if(result.rows.isEmpty()) {
             System.out.println("No results found, try again");
          }
          else {
-            int rowCount = esql.executeQueryAndPrintResult(query);
+            int rowCount = printResult(result);
             System.out.println ("total row(s): " + rowCount);
          } 
       }catch(Exception e){
@@ -756,41 +2087,985 @@ public class AirlineManagement {
          System.out.print("\tEnter customerID: ");
          String customerID = in.readLine();
 
-         String numReservationsQuery = "SELECT COUNT(*) FROM RESERVATION";
-         int numReservations = 0;
-         List<List<String>> result = esql.executeQueryAndReturnResult(numReservationsQuery);
-         numReservations = Integer.parseInt(result.get(0).get(0));
-         numReservations++;
-         String reservationID = String.format("R%04d", numReservations);
-
          System.out.print("\tEnter flight instance id: ");
          String flightInstanceID = in.readLine();
 
-         String seatsSoldQuery = "SELECT SeatsSold FROM FlightInstance WHERE FlightInstanceID = '" + flightInstanceID + "'";
-         int numSeatsSold = 0;
-         List<List<String>> SeatsSold = new ArrayList<>();
-         SeatsSold = esql.executeQueryAndReturnResult(seatsSoldQuery);
-         numSeatsSold = Integer.parseInt(SeatsSold.get(0).get(0));
-
-         String totalSeatsQuery = "SELECT SeatsTotal FROM FlightInstance WHERE FlightInstanceID = '" + flightInstanceID + "'";
-         int numSeatsTotal = 0;
-         List<List<String>> SeatsTotal = new ArrayList<>();
-         SeatsTotal = esql.executeQueryAndReturnResult(totalSeatsQuery);
-         numSeatsTotal = Integer.parseInt(SeatsTotal.get(0).get(0));
-
-         String addReservation = null;
-         if(numSeatsSold < numSeatsTotal) {
-            addReservation = "INSERT INTO Reservation (ReservationID, CustomerID, FlightInstanceID, Status) VALUES ('" + reservationID + "', '" + customerID + "', '" + flightInstanceID + "', 'reserved');";
-            esql.executeUpdate(addReservation);
-            String updateTickets = "UPDATE FlightInstance SET SeatsSold = SeatsSold + 1 WHERE FlightInstanceID = '" + flightInstanceID + "'";
-            esql.executeUpdate(updateTickets);
-            System.out.println("Reservation booking successful: reserved");
+         String detail = "flight instance " + flightInstanceID;
+         String status = null;
+         esql.beginTransaction();
+         try {
+            status = esql.bookSeat(customerID, flightInstanceID);
+            esql.commitTransaction();
+         } catch (SQLException e) {
+            esql.rollbackTransaction();
+            esql.audit("reservation", customerID, "failed", detail + ": " + e.getMessage());
+            throw e;
          }
-         else {
-            addReservation = "INSERT INTO Reservation (ReservationID, CustomerID, FlightInstanceID, Status) VALUES ('" + reservationID + "', '" + customerID + "', '" + flightInstanceID + "', 'waitlist');";
-            esql.executeUpdate(addReservation);
-            System.out.println("Reservation booking successful: waitlist");
+         esql.audit("reservation", customerID, status, detail);
+         System.out.println("Reservation booking successful: " + status);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }
+
+   public static void makeGroupReservation(AirlineManagement esql) {
+      try {
+         System.out.println("\tMaking a group reservation");
+         System.out.print("\tEnter customerIDs separated by commas: ");
+         List<String> customerIDs = new ArrayList<String>();
+         for (String id : in.readLine().split(",")) {
+            if (!id.trim().isEmpty())
+               customerIDs.add(String.valueOf(Integer.parseInt(id.trim())));
+         }
+         if (customerIDs.isEmpty()) {
+            System.out.println("No customers given, try again");
+            return;
+         }
+         System.out.print("\tEnter flight instance id: ");
+         String flightInstanceID = String.valueOf(Integer.parseInt(in.readLine().trim()));
+
+         String detail = "flight instance " + flightInstanceID + ", customers " + String.join(",", customerIDs);
+         GroupBooking booking = null;
+         esql.beginTransaction();
+         try {
+            booking = esql.bookGroup(customerIDs, flightInstanceID);
+            esql.commitTransaction();
+         } catch (SQLException e) {
+            esql.rollbackTransaction();
+            esql.audit("group reservation", null, "failed", detail + ": " + e.getMessage());
+            throw e;
+         }
+         esql.audit("group reservation", null, booking.reservedCount + " reserved", detail);
+         System.out.println("Group booking successful: " + booking.reservedCount + " reserved, " +
+                            (customerIDs.size() - booking.reservedCount) + " waitlist");
+         for (int i = 0; i < customerIDs.size(); i++)
+            System.out.println("\t" + booking.reservationIDs.get(i) + "\t" + customerIDs.get(i) + "\t" +
+                               (i < booking.reservedCount ? "reserved" : "waitlist"));
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }
+
+   public static void cancelReservation(AirlineManagement esql) {
+      try {
+         System.out.println("\tCancel a reservation");
+         System.out.print("\tEnter reservation number: ");
+         String reservationID = in.readLine().trim();
+
+         int promoted = 0;
+         esql.beginTransaction();
+         try {
+            promoted = esql.cancelReservation(escapeLiteral(reservationID));
+            esql.commitTransaction();
+         } catch (SQLException e) {
+            esql.rollbackTransaction();
+            throw e;
+         }
+         System.out.println("Reservation " + reservationID + " cancelled.");
+         if (promoted > 0)
+            System.out.println(promoted + " waitlisted reservation(s) promoted.");
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }
+
+   public static void changeSeatCapacity(AirlineManagement esql) {
+      try {
+         System.out.println("\tChange seat capacity of a flight");
+         System.out.print("\tEnter flight instance id: ");
+         int flightInstanceID = Integer.parseInt(in.readLine().trim());
+         System.out.print("\tEnter new total seats: ");
+         int seatsTotal = Integer.parseInt(in.readLine().trim());
+
+         int promoted = 0;
+         esql.beginTransaction();
+         try {
+            int updated = esql.executeUpdate("UPDATE FlightInstance SET SeatsTotal = " + seatsTotal +
+                                             " WHERE FlightInstanceID = " + flightInstanceID + " AND SeatsSold <= " + seatsTotal);
+            if (updated == 0)
+               throw new SQLException("No such flight instance, or more seats already sold than " + seatsTotal);
+            promoted = esql.promoteWaitlist("f.FlightInstanceID = " + flightInstanceID);
+            esql.commitTransaction();
+         } catch (SQLException e) {
+            esql.rollbackTransaction();
+            throw e;
+         }
+         System.out.println("Seat capacity updated, " + promoted + " waitlisted reservation(s) promoted.");
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }
+
+   public static void promoteWaitlistedPassengers(AirlineManagement esql) {
+      try {
+         System.out.println("\tPromote waitlisted passengers on all flights with free seats");
+         int promoted = esql.promoteWaitlist(null);
+         System.out.println(promoted + " waitlisted reservation(s) promoted.");
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }
+
+   /*
+    * Waitlists waitlistSize customers on each of the first flightCount flight
+    * instances, raises their capacity to fit and times one promoteWaitlist
+    * over them. Runs in a transaction that is rolled back.
+    **/
+   public static void benchmarkWaitlistPromotion(AirlineManagement esql, int flightCount, int waitlistSize) throws SQLException {
+      String flights = "SELECT FlightInstanceID FROM FlightInstance ORDER BY FlightInstanceID LIMIT " + flightCount;
+      esql.beginTransaction();
+      try {
+         int waitlisted = esql.executeUpdate(
+            "INSERT INTO Reservation (ReservationID, CustomerID, FlightInstanceID, Status) " +
+            "SELECT 'R' || CASE WHEN id < 10000 THEN lpad(id::text, 4, '0') ELSE id::text END, CustomerID, FlightInstanceID, 'waitlist' " +
+            "FROM (SELECT nextval('reservation_seq') AS id, c.CustomerID, f.FlightInstanceID " +
+            "      FROM (" + flights + ") f CROSS JOIN (SELECT CustomerID FROM Customer ORDER BY CustomerID LIMIT " + waitlistSize + ") c " +
+            "      ORDER BY f.FlightInstanceID, c.CustomerID) w");
+         esql.executeUpdate("UPDATE FlightInstance SET SeatsTotal = SeatsSold + " + waitlistSize + " WHERE FlightInstanceID IN (" + flights + ")");
+
+         long start = System.nanoTime();
+         int promoted = esql.promoteWaitlist("f.FlightInstanceID IN (" + flights + ")");
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.println(String.format("waitlisted %d reservation(s) on %d flight(s)", waitlisted, flightCount));
+         System.out.println(String.format("promoted %d reservation(s) in %.2f ms (%.0f promotions/s)",
+                                          promoted, seconds * 1e3, promoted / seconds));
+      } finally {
+         esql.rollbackTransaction();
+      }
+   }
+
+   /*
+    * Measures booking latency while reportThreads sessions keep issuing a
+    * heavy report, first with the reports run directly (no admission
+    * control) and then through runGoverned. Prints the latency percentiles
+    * of both runs, and PASS when the governed p99 stays within maxP99Millis,
+    * FAIL otherwise.
+    **/
+   public static void benchmarkQueryGovernance(AirlineManagement esql, int reportThreads, int seconds, double maxP99Millis) throws Exception {
+      List<Long> baseline = measureBookingsUnderReports(esql, reportThreads, seconds, false);
+      List<Long> governed = measureBookingsUnderReports(esql, reportThreads, seconds, true);
+      if (governed.isEmpty()) {
+         System.out.println("FAIL: no bookings completed");
+         return;
+      }
+      double p99 = percentile(governed, 99) / 1e6;
+      if (!baseline.isEmpty())
+         System.out.println(String.format("p99 booking latency: %.2f ms ungoverned, %.2f ms governed",
+                                          percentile(baseline, 99) / 1e6, p99));
+      System.out.println(String.format("%s: governed p99 %.2f ms, bound %.2f ms", p99 <= maxP99Millis ? "PASS" : "FAIL", p99, maxP99Millis));
+   }
+
+   /*
+    * Books seats on this session (each booking rolled back) for the given
+    * time while reportThreads other sessions run a heavy report in a loop,
+    * governed or not
+    * @return the sorted booking latencies, in nanoseconds
+    **/
+   private static List<Long> measureBookingsUnderReports(AirlineManagement esql, int reportThreads, int seconds, final boolean governed) throws Exception {
+      final String report = "SELECT COUNT(*) FROM Reservation r1 join Reservation r2 on r1.FlightInstanceID = r2.FlightInstanceID " +
+                            "join Reservation r3 on r3.FlightInstanceID = r2.FlightInstanceID";
+      final long end = System.currentTimeMillis() + seconds * 1000L;
+      final AtomicLong completed = new AtomicLong();
+      final AtomicLong failed = new AtomicLong();
+
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < reportThreads; i++) {
+         final AirlineManagement session = esql.openSession();
+         if (!governed)
+            session.applyQueryClass(QueryClass.REPORT);
+         Thread thread = new Thread(() -> {
+            while (System.currentTimeMillis() < end) {
+               try {
+                  if (governed)
+                     session.runGoverned(QueryClass.REPORT, false, reporter -> reporter.executeQuery(report));
+                  else
+                     session.executeQuery(report);
+                  completed.incrementAndGet();
+               } catch (Exception e) {
+                  failed.incrementAndGet();
+               }
+            }
+            session.cleanup();
+         });
+         thread.start();
+         threads.add(thread);
+      }
+
+      String flightInstanceID = esql.executeQueryAndReturnResult("SELECT MIN(FlightInstanceID) FROM FlightInstance").get(0).get(0);
+      String customerID = esql.executeQueryAndReturnResult("SELECT MIN(CustomerID) FROM Customer").get(0).get(0);
+      List<Long> latencies = new ArrayList<Long>();
+      while (System.currentTimeMillis() < end) {
+         esql.beginTransaction();
+         try {
+            long start = System.nanoTime();
+            esql.bookSeat(customerID, flightInstanceID);
+            latencies.add(System.nanoTime() - start);
+         } finally {
+            esql.rollbackTransaction();
          }
+         Thread.sleep(10);
+      }
+      for (Thread thread : threads)
+         thread.join();
+
+      java.util.Collections.sort(latencies);
+      int n = latencies.size();
+      String mode = governed ? "governed" : "ungoverned";
+      System.out.println(String.format("%s reports: %d completed, %d rejected or failed (%d threads%s)", mode,
+                                       completed.get(), failed.get(), reportThreads,
+                                       governed ? ", " + ADMISSION_SLOTS + " slots" : ""));
+      if (n > 0)
+         System.out.println(String.format("%s bookings: %d, p50 %.2f ms, p99 %.2f ms, max %.2f ms", mode, n,
+                                          percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6,
+                                          latencies.get(n - 1) / 1e6));
+      return latencies;
+   }
+
+   private static long percentile(List<Long> sorted, int percent) {
+      return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percent / 100));
+   }
+
+   /*
+    * Measures the per-event cost of AuditLog.record on the calling thread and
+    * the time to drain everything through the writer. Events go to a session
+    * private copy of AuditEvent, so the real log is untouched.
+    **/
+   public static void benchmarkAuditLog(AirlineManagement esql, int events) {
+      AuditLog log = new AuditLog(esql._url, esql._user, esql._passwd, true);
+      log.start();
+      // warm up the JIT before timing
+      for (int i = 0; i < Math.min(events, 10000); i++)
+         log.record("benchmark", "warmup", "ok", null);
+
+      long start = System.nanoTime();
+      for (int i = 0; i < events; i++)
+         log.record("benchmark", "user" + (i & 1023), "ok", "event " + i);
+      long enqueued = System.nanoTime();
+      log.close();
+      long flushed = System.nanoTime();
+
+      System.out.println(String.format("enqueue: %.0f ns/event on the caller (%d events)", (enqueued - start) / (double) events, events));
+      System.out.println(String.format("written: %.2f s to drain, %.0f events/s end to end",
+                                       (flushed - start) / 1e9, events / ((flushed - start) / 1e9)));
+   }
+
+   /*
+    * Compares booking a group seat by seat, committing every booking the way
+    * makeReservation does, with one committed bookGroup call. The bookings
+    * go to a scratch flight instance created for the run, emptied after each
+    * timed run and dropped at the end, so no live flight is touched
+    * (reservation ids drawn from the sequence are not reused).
+    **/
+   public static void benchmarkGroupBooking(AirlineManagement esql, int groupSize, int rounds) throws SQLException {
+      List<String> customerIDs = new ArrayList<String>();
+      for (List<String> row : esql.executeQueryAndReturnResult("SELECT CustomerID FROM Customer ORDER BY CustomerID LIMIT " + groupSize))
+         customerIDs.add(row.get(0));
+      groupSize = customerIDs.size();
+
+      String flightInstanceID = createScratchFlightInstance(esql, groupSize);
+      long loopNanos = 0;
+      long groupNanos = 0;
+      try {
+         for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (String customerID : customerIDs) {
+               esql.beginTransaction();
+               try {
+                  esql.bookSeat(customerID, flightInstanceID);
+                  esql.commitTransaction();
+               } catch (SQLException e) {
+                  esql.rollbackTransaction();
+                  throw e;
+               }
+            }
+            loopNanos += System.nanoTime() - start;
+            clearScratchFlightInstance(esql, flightInstanceID);
+
+            start = System.nanoTime();
+            esql.beginTransaction();
+            try {
+               esql.bookGroup(customerIDs, flightInstanceID);
+               esql.commitTransaction();
+            } catch (SQLException e) {
+               esql.rollbackTransaction();
+               throw e;
+            }
+            groupNanos += System.nanoTime() - start;
+            clearScratchFlightInstance(esql, flightInstanceID);
+         }
+      } finally {
+         dropScratchFlightInstance(esql, flightInstanceID);
+      }
+      long bookings = (long) groupSize * rounds;
+      System.out.println(String.format("makeReservation loop: %.2f ms/group, %.0f bookings/s",
+                                       loopNanos / 1e6 / rounds, bookings / (loopNanos / 1e9)));
+      System.out.println(String.format("group booking:        %.2f ms/group, %.0f bookings/s",
+                                       groupNanos / 1e6 / rounds, bookings / (groupNanos / 1e9)));
+      System.out.println(String.format("speedup: %.1fx", (double) loopNanos / groupNanos));
+   }
+
+   /*
+    * Creates an empty flight instance with the given number of seats for a
+    * benchmark, on the first flight and the day after its last instance
+    * @return the new FlightInstanceID
+    **/
+   private static String createScratchFlightInstance(AirlineManagement esql, int seats) throws SQLException {
+      List<List<String>> created = esql.executeQueryAndReturnResult(
+         "INSERT INTO FlightInstance (FlightInstanceID, FlightNumber, FlightDate, DepartedOnTime, ArrivedOnTime, " +
+         "SeatsTotal, SeatsSold, NumOfStops, TicketCost) " +
+         "SELECT nextval('flightinstance_seq'), f.FlightNumber, " +
+         "COALESCE((SELECT MAX(i.FlightDate) FROM FlightInstance i WHERE i.FlightNumber = f.FlightNumber), CURRENT_DATE) + 1, " +
+         "NULL, NULL, " + seats + ", 0, 0, 0 FROM Flight f ORDER BY f.FlightNumber LIMIT 1 RETURNING FlightInstanceID");
+      if (created.isEmpty())
+         throw new SQLException("No flight to create a scratch flight instance on");
+      return created.get(0).get(0);
+   }
+
+   /*
+    * Deletes every reservation on a scratch flight instance and gives its
+    * seats back
+    **/
+   private static void clearScratchFlightInstance(AirlineManagement esql, String flightInstanceID) throws SQLException {
+      esql.beginTransaction();
+      try {
+         esql.executeUpdate("DELETE FROM Reservation WHERE FlightInstanceID = " + flightInstanceID);
+         esql.executeUpdate("UPDATE FlightInstance SET SeatsSold = 0 WHERE FlightInstanceID = " + flightInstanceID);
+         esql.commitTransaction();
+      } catch (SQLException e) {
+         esql.rollbackTransaction();
+         throw e;
+      }
+   }
+
+   /*
+    * Deletes a scratch flight instance together with its reservations
+    **/
+   private static void dropScratchFlightInstance(AirlineManagement esql, String flightInstanceID) throws SQLException {
+      esql.beginTransaction();
+      try {
+         esql.executeUpdate("DELETE FROM Reservation WHERE FlightInstanceID = " + flightInstanceID);
+         esql.executeUpdate("DELETE FROM FlightInstance WHERE FlightInstanceID = " + flightInstanceID);
+         esql.commitTransaction();
+      } catch (SQLException e) {
+         esql.rollbackTransaction();
+         throw e;
+      }
+   }
+
+   public static void runIndexAdvisor(AirlineManagement esql) {
+      try {
+         System.out.println("Index advisor");
+         System.out.print("\tEnter file for the recommended index script: ");
+         String path = in.readLine();
+         adviseIndexes(esql, path);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }
+
+   /*
+    * Inspects the catalog and the application's query templates and writes a
+    * script of recommended index changes:
+    *  - redundant indexes: non-unique btree indexes whose key columns are equal
+    *    to or a leading prefix of another index on the same table, or whose
+    *    leading keys already contain the whole key of a unique index or
+    *    primary key, so a lookup on them finds at most one row anyway, as
+    *    with Users(username, password) (dropped);
+    *  - missing indexes: templates whose plan scans a table sequentially and
+    *    for which no index starts with the columns they filter on (created);
+    *  - unused indexes: never scanned since the statistics were reset
+    *    (listed as commented out drops, since that depends on the workload).
+    * Every recommendation is measured inside a rolled back transaction on a
+    * temporary copy of the table, so the live table is only read and
+    * bookings and repairs can still insert while the advisor runs: query
+    * latency with EXPLAIN ANALYZE before and after creating the index, and
+    * insert throughput into a scratch copy of the table carrying the current
+    * and the recommended sets of non-unique indexes. Copying a large table
+    * takes a while, so run it off-peak.
+    **/
+   public static void adviseIndexes(AirlineManagement esql, String path) throws SQLException, IOException {
+      StringBuilder script = new StringBuilder("-- Index advisor recommendations\n");
+      List<String> dropped = new ArrayList<String>();
+      List<String> affectedTables = new ArrayList<String>();
+      Map<String, List<String>> created = new java.util.LinkedHashMap<String, List<String>>();
+
+      // redundant: same access method, opclasses and collations, keys equal to or a prefix of another index
+      List<List<String>> redundant = esql.executeQueryAndReturnResult(
+         "SELECT DISTINCT ON (a.relname) t.relname, a.relname, b.relname FROM pg_index ia " +
+         "join pg_index ib on ib.indrelid = ia.indrelid AND ib.indexrelid <> ia.indexrelid " +
+         "join pg_class a on a.oid = ia.indexrelid join pg_class b on b.oid = ib.indexrelid " +
+         "join pg_class t on t.oid = ia.indrelid join pg_namespace n on n.oid = t.relnamespace " +
+         "WHERE n.nspname = 'public' AND a.relam = b.relam AND NOT ia.indisunique " +
+         "AND ia.indexprs IS NULL AND ib.indexprs IS NULL AND ia.indpred IS NULL AND ib.indpred IS NULL " +
+         "AND (ib.indkey::text || ' ') LIKE (ia.indkey::text || ' %') " +
+         "AND (ib.indclass::text || ' ') LIKE (ia.indclass::text || ' %') " +
+         "AND (ib.indcollation::text || ' ') LIKE (ia.indcollation::text || ' %') " +
+         "AND (ia.indkey::text <> ib.indkey::text OR ib.indisunique OR ia.indexrelid > ib.indexrelid) " +
+         "ORDER BY a.relname, ib.indisprimary DESC, ib.indisunique DESC");
+      script.append("\n-- Redundant indexes\n");
+      for (List<String> row : redundant) {
+         String table = row.get(0);
+         dropped.add(row.get(1));
+         if (!affectedTables.contains(table)) affectedTables.add(table);
+         String line = "DROP INDEX IF EXISTS " + row.get(1) + "; -- covered by " + row.get(2);
+         System.out.println(line);
+         script.append(line).append("\n");
+      }
+
+      // redundant: leading keys contain the full key of a unique index, in any order
+      List<List<String>> overUnique = esql.executeQueryAndReturnResult(
+         "SELECT DISTINCT ON (a.relname) t.relname, a.relname, u.relname FROM pg_index ia " +
+         "join pg_index iu on iu.indrelid = ia.indrelid AND iu.indexrelid <> ia.indexrelid AND iu.indisunique " +
+         "join pg_class a on a.oid = ia.indexrelid join pg_class u on u.oid = iu.indexrelid " +
+         "join pg_class t on t.oid = ia.indrelid join pg_namespace n on n.oid = t.relnamespace " +
+         "WHERE n.nspname = 'public' AND a.relam = u.relam AND NOT ia.indisunique " +
+         "AND ia.indexprs IS NULL AND iu.indexprs IS NULL AND ia.indpred IS NULL AND iu.indpred IS NULL " +
+         "AND ia.indnatts >= iu.indnatts " +
+         "AND (CAST(string_to_array(ia.indkey::text, ' ') AS int2[]))[1:iu.indnatts] @> CAST(string_to_array(iu.indkey::text, ' ') AS int2[]) " +
+         "ORDER BY a.relname, iu.indisprimary DESC");
+      for (List<String> row : overUnique) {
+         if (dropped.contains(row.get(1)))
+            continue;
+         String table = row.get(0);
+         dropped.add(row.get(1));
+         if (!affectedTables.contains(table)) affectedTables.add(table);
+         String line = "DROP INDEX IF EXISTS " + row.get(1) + "; -- leading keys already unique through " + row.get(2) +
+                       "; keep it only if index-only scans need its other columns";
+         System.out.println(line);
+         script.append(line).append("\n");
+      }
+
+      // missing: replay the application's query templates
+      List<String> fi = sampleRow(esql, "SELECT FlightNumber, FlightDate, FlightInstanceID FROM FlightInstance ORDER BY FlightInstanceID LIMIT 1", "F000", "2000-01-01", "0");
+      List<String> rp = sampleRow(esql, "SELECT PlaneID, TechnicianID, RepairDate FROM Repair ORDER BY RepairID LIMIT 1", "PL000", "T000", "2000-01-01");
+      List<String> mr = sampleRow(esql, "SELECT PilotID FROM MaintenanceRequest ORDER BY RequestID LIMIT 1", "P000");
+      List<String> cu = sampleRow(esql, "SELECT CustomerID FROM Customer ORDER BY CustomerID LIMIT 1", "0");
+      String[][] templates = {
+         {"passenger status on a flight", "reservation", "flightinstanceid",
+          "SELECT c.FirstName, c.LastName, r.Status FROM Customer c join Reservation r On c.CustomerID = r.customerID join FlightInstance f On f.FlightInstanceID = r.FlightInstanceID WHERE f.FlightNumber = '" + fi.get(0) + "' AND f.FlightDate = DATE '" + fi.get(1) + "'"},
+         {"reservations of a customer", "reservation", "customerid",
+          "SELECT ReservationID, FlightInstanceID, Status FROM Reservation WHERE CustomerID = " + cu.get(0)},
+         {"repairs by a technician", "repair", "technicianid,repairdate",
+          "SELECT * FROM Repair r JOIN Technician t ON r.TechnicianID = t.TechnicianID WHERE t.TechnicianID = '" + rp.get(1) + "' ORDER BY r.RepairDate"},
+         {"repairs on a plane in a range", "repair", "planeid,repairdate",
+          "SELECT RepairDate, RepairCode FROM Repair WHERE PlaneID = '" + rp.get(0) + "' AND RepairDate BETWEEN DATE '" + rp.get(2) + "' AND DATE '" + rp.get(2) + "'"},
+         {"flights of the day", "flightinstance", "flightdate",
+          "SELECT * FROM FlightInstance WHERE FlightDate = DATE '" + fi.get(1) + "'"},
+         {"seats on a flight", "flightinstance", "flightnumber,flightdate",
+          "SELECT SeatsTotal - SeatsSold as SeatsAvailable, SeatsSold FROM FlightInstance Where FlightNumber = '" + fi.get(0) + "' AND FlightDate = DATE '" + fi.get(1) + "'"},
+         {"schedule of a flight", "schedule", "flightnumber",
+          "SELECT * FROM Schedule WHERE FlightNumber = '" + fi.get(0) + "'"},
+         {"maintenance requests by a pilot", "maintenancerequest", "pilotid",
+          "SELECT PlaneID, RepairCode, RequestDate FROM MaintenanceRequest WHERE PilotID = '" + mr.get(0) + "'"},
+      };
+      script.append("\n-- Missing indexes\n");
+      for (String[] template : templates) {
+         String table = template[1];
+         String columns = template[2];
+         List<String> plan = new ArrayList<String>();
+         for (List<String> row : esql.executeQueryAndReturnResult("EXPLAIN " + template[3]))
+            plan.add(row.get(0));
+         boolean seqScan = String.join("\n", plan).contains("Seq Scan on " + table);
+         if (!seqScan || hasIndexStartingWith(esql, table, columns, dropped))
+            continue;
+         List<String> tableIndexes = created.computeIfAbsent(table, t -> new ArrayList<String>());
+         if (tableIndexes.contains(columns))
+            continue;
+         tableIndexes.add(columns);
+         if (!affectedTables.contains(table)) affectedTables.add(table);
+
+         String ddl = "CREATE INDEX " + table + "_" + columns.replace(",", "_") + " ON " + table + "(" + columns.replace(",", ", ") + ")";
+         double before = 0, after = 0;
+         System.out.println("Measuring " + table + "(" + columns + ") on a private copy of " + table + "...");
+         esql.beginTransaction();
+         try {
+            // the temporary copy shadows the table for this session only, so the
+            // template runs against it and the live table is only read
+            esql.executeUpdate("CREATE TEMP TABLE " + table + " (LIKE public." + table + " INCLUDING INDEXES) ON COMMIT DROP");
+            esql.executeUpdate("INSERT INTO pg_temp." + table + " SELECT * FROM public." + table);
+            esql.executeUpdate("ANALYZE pg_temp." + table);
+            before = explainAnalyzeMillis(esql, template[3]);
+            esql.executeUpdate(ddl);
+            esql.executeUpdate("ANALYZE pg_temp." + table);
+            after = explainAnalyzeMillis(esql, template[3]);
+         } finally {
+            esql.rollbackTransaction();
+         }
+         String line = ddl + "; -- " + template[0] + ": " + String.format("%.3f ms -> %.3f ms", before, after);
+         System.out.println(line);
+         script.append(line).append("\n");
+      }
+
+      // insert throughput with the current and the recommended index sets
+      script.append("\n-- Insert throughput into a scratch copy (non-unique indexes only)\n");
+      for (String table : affectedTables) {
+         List<List<String>> indexes = esql.executeQueryAndReturnResult(
+            "SELECT c.relname, 'CREATE INDEX ON advisor_scratch USING ' || split_part(pg_get_indexdef(i.indexrelid), ' USING ', 2) " +
+            "FROM pg_index i join pg_class c on c.oid = i.indexrelid WHERE i.indrelid = '" + table + "'::regclass AND NOT i.indisunique");
+         List<String> current = new ArrayList<String>();
+         List<String> recommended = new ArrayList<String>();
+         for (List<String> index : indexes) {
+            current.add(index.get(1));
+            if (!dropped.contains(index.get(0)))
+               recommended.add(index.get(1));
+         }
+         for (String columns : created.getOrDefault(table, new ArrayList<String>()))
+            recommended.add("CREATE INDEX ON advisor_scratch (" + columns + ")");
+
+         double currentRate = measureInsertRate(esql, table, current);
+         double recommendedRate = measureInsertRate(esql, table, recommended);
+         String line = String.format("-- %s: %.0f rows/s with %d index(es) -> %.0f rows/s with %d index(es)",
+                                     table, currentRate, current.size(), recommendedRate, recommended.size());
+         System.out.println(line);
+         script.append(line).append("\n");
+      }
+
+      List<List<String>> unused = esql.executeQueryAndReturnResult(
+         "SELECT s.indexrelname, s.relname, pg_size_pretty(pg_relation_size(s.indexrelid)) FROM pg_stat_user_indexes s " +
+         "join pg_index i on i.indexrelid = s.indexrelid WHERE s.idx_scan = 0 AND NOT i.indisunique ORDER BY s.relname, s.indexrelname");
+      script.append("\n-- Unused since statistics were reset; review before dropping\n");
+      for (List<String> row : unused) {
+         if (dropped.contains(row.get(0)))
+            continue;
+         String line = "-- DROP INDEX IF EXISTS " + row.get(0) + "; -- on " + row.get(1) + ", " + row.get(2);
+         System.out.println(line);
+         script.append(line).append("\n");
+      }
+
+      java.nio.file.Files.write(Paths.get(path), script.toString().getBytes(StandardCharsets.UTF_8));
+      System.out.println("Recommended index script written to " + path);
+   }
+
+   private static List<String> sampleRow(AirlineManagement esql, String query, String... defaults) throws SQLException {
+      List<List<String>> rows = esql.executeQueryAndReturnResult(query);
+      return rows.isEmpty() ? Arrays.asList(defaults) : rows.get(0);
+   }
+
+   /*
+    * Whether an index other than the ones being dropped has the given
+    * comma separated columns as its leading keys
+    **/
+   private static boolean hasIndexStartingWith(AirlineManagement esql, String table, String columns, List<String> dropped) throws SQLException {
+      List<List<String>> keys = esql.executeQueryAndReturnResult(
+         "SELECT c.relname, string_agg(a.attname, ',' ORDER BY k.ord) FROM pg_index i " +
+         "join pg_class c on c.oid = i.indexrelid " +
+         "CROSS JOIN LATERAL unnest(i.indkey) WITH ORDINALITY k(attnum, ord) " +
+         "join pg_attribute a on a.attrelid = i.indrelid AND a.attnum = k.attnum " +
+         "WHERE i.indrelid = '" + table + "'::regclass AND i.indpred IS NULL GROUP BY c.relname");
+      for (List<String> key : keys) {
+         if (!dropped.contains(key.get(0)) && (key.get(1) + ",").startsWith(columns + ","))
+            return true;
+      }
+      return false;
+   }
+
+   /*
+    * Best of three EXPLAIN ANALYZE execution times, in milliseconds
+    **/
+   private static double explainAnalyzeMillis(AirlineManagement esql, String query) throws SQLException {
+      double best = Double.MAX_VALUE;
+      for (int run = 0; run < 3; run++) {
+         for (List<String> row : esql.executeQueryAndReturnResult("EXPLAIN ANALYZE " + query)) {
+            String line = row.get(0).trim();
+            if (line.startsWith("Execution Time:") || line.startsWith("Total runtime:"))
+               best = Math.min(best, Double.parseDouble(line.replaceAll("[^0-9.]", "")));
+         }
+      }
+      return best == Double.MAX_VALUE ? 0 : best;
+   }
+
+   private static final int INSERT_SAMPLE_ROWS = 20000;
+
+   /*
+    * Rows per second inserted into an empty scratch copy of the table that
+    * carries the given indexes. At most INSERT_SAMPLE_ROWS rows are read from
+    * the table, repeated on small tables to reach about that many.
+    **/
+   private static double measureInsertRate(AirlineManagement esql, String table, List<String> indexDdls) throws SQLException {
+      String sample = "SELECT * FROM " + table + " LIMIT " + INSERT_SAMPLE_ROWS;
+      int rows = Integer.parseInt(esql.executeQueryAndReturnResult("SELECT COUNT(*) FROM (" + sample + ") s").get(0).get(0));
+      if (rows == 0)
+         return 0;
+      int repeat = Math.max(1, INSERT_SAMPLE_ROWS / rows);
+      esql.beginTransaction();
+      try {
+         esql.executeUpdate("CREATE TEMP TABLE advisor_scratch (LIKE " + table + ") ON COMMIT DROP");
+         for (String ddl : indexDdls)
+            esql.executeUpdate(ddl);
+         long start = System.nanoTime();
+         int inserted = esql.executeUpdate("INSERT INTO advisor_scratch SELECT t.* FROM (" + sample + ") t, generate_series(1, " + repeat + ")");
+         return inserted / ((System.nanoTime() - start) / 1e9);
+      } finally {
+         esql.rollbackTransaction();
+      }
+   }
+
+   public static void ingestFlightStatusFeed(AirlineManagement esql) {
+      try {
+         System.out.println("Ingest flight status feed");
+         System.out.print("\tEnter feed file: ");
+         BufferedReader feed = new BufferedReader(new FileReader(in.readLine().trim()));
+         try {
+            ingestFlightStatus(esql, feed);
+         } finally {
+            feed.close();
+         }
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }
+
+   private static final int STATUS_BATCH_SIZE = 1000;
+   private static final long STATUS_FLUSH_INTERVAL_MS = 1000;
+   // events this much older than the newest one seen are too late to apply
+   private static final long STATUS_LATENESS_MS = 2 * 24 * 60 * 60 * 1000L;
+   private static final long STATUS_PRUNE_INTERVAL_MS = 60 * 1000L;
+   private static final int STATUS_MAX_ATTEMPTS = 4;
+   private static final long STATUS_RETRY_DELAY_MS = 500;
+
+   /*
+    * Pending on-time flags for one flight instance; null means not reported
+    **/
+   private static class StatusUpdate {
+      Boolean departed;
+      Boolean arrived;
+      // earliest event folded into this update, for lag reporting
+      long eventTime;
+   }
+
+   /*
+    * EventTime of the newest departure and arrival flag taken so far for one
+    * flight instance, so older events arriving later are ignored
+    **/
+   private static class StatusTimes {
+      long departed = Long.MIN_VALUE;
+      long arrived = Long.MIN_VALUE;
+   }
+
+   /*
+    * Forgets flight instances whose flags are all older than the lateness
+    * window; any event that could still be older than them is rejected as too
+    * late anyway, so the map stays bounded on an endless feed
+    **/
+   private static void pruneStatusTimes(Map<String, StatusTimes> latest, long cutoff) {
+      latest.values().removeIf(times -> times.departed < cutoff && times.arrived < cutoff);
+   }
+
+   /*
+    * Applies one batch, rolling back and retrying with exponential backoff on
+    * failure, e.g. a statement timeout or a lock wait; after
+    * STATUS_MAX_ATTEMPTS the batch is reported and skipped
+    * @return the number of flight instances updated, or -1 if the batch was skipped
+    **/
+   private static int applyStatusBatchWithRetry(AirlineManagement esql, Map<String, StatusUpdate> pending) {
+      long delay = STATUS_RETRY_DELAY_MS;
+      for (int attempt = 1; ; attempt++) {
+         try {
+            return applyStatusBatch(esql, pending);
+         } catch (SQLException e) {
+            if (attempt == STATUS_MAX_ATTEMPTS) {
+               System.err.println("Skipping batch of " + pending.size() + " flight instance(s) after " + attempt +
+                                  " attempts: " + e.getMessage());
+               return -1;
+            }
+            System.err.println("Status batch failed (attempt " + attempt + "), retrying in " + delay + " ms: " + e.getMessage());
+            try {
+               Thread.sleep(delay);
+            } catch (InterruptedException ie) {
+               Thread.currentThread().interrupt();
+               return -1;
+            }
+            delay *= 2;
+         }
+      }
+   }
+
+   /*
+    * Applies a feed of on-time events, one per line:
+    *    FlightNumber,FlightDate,DepartedOnTime,ArrivedOnTime[,EventTime]
+    * where the flags are true/false (t/f, 1/0) or empty when not reported and
+    * EventTime is an optional ISO-8601 instant (the time the line is read when
+    * missing). Events for the same flight instance are coalesced in memory,
+    * the flag with the latest EventTime winning even when lines arrive out of
+    * order, including across batches of the same feed, and applied as one
+    * UPDATE ... FROM (VALUES ...) per batch, each batch its own transaction.
+    * Events more than STATUS_LATENESS_MS older than the newest event seen are
+    * rejected as too late, which bounds the state kept per flight instance.
+    * A failing batch is retried with backoff and then skipped, so the feed
+    * keeps flowing.  A batch is flushed when it holds STATUS_BATCH_SIZE
+    * flight instances, when STATUS_FLUSH_INTERVAL_MS has passed, when no more
+    * input is waiting, or at the end of the feed.
+    **/
+   public static void ingestFlightStatus(AirlineManagement esql, BufferedReader feed) throws IOException, SQLException {
+      // sorted, so concurrent ingesters lock flight instances in the same order
+      Map<String, StatusUpdate> pending = new java.util.TreeMap<String, StatusUpdate>();
+      Map<String, StatusTimes> latest = new java.util.HashMap<String, StatusTimes>();
+      long start = System.currentTimeMillis();
+      long batchStart = start;
+      long events = 0, applied = 0, unmatched = 0, rejected = 0, stale = 0, skipped = 0;
+      long newestEvent = Long.MIN_VALUE;
+      long lastPrune = start;
+      String line;
+      while (true) {
+         line = feed.readLine();
+         if (line != null && !line.trim().isEmpty() && !line.startsWith("FlightNumber")) {
+            String[] fields = line.split(",", -1);
+            try {
+               if (fields.length < 4)
+                  throw new IllegalArgumentException("expected at least 4 fields");
+               String key = fields[0].trim() + "," + java.time.LocalDate.parse(fields[1].trim());
+               Boolean departed = parseOnTime(fields[2]);
+               Boolean arrived = parseOnTime(fields[3]);
+               long eventTime = fields.length > 4 && !fields[4].trim().isEmpty() ?
+                                java.time.Instant.parse(fields[4].trim()).toEpochMilli() : System.currentTimeMillis();
+               events++;
+               newestEvent = Math.max(newestEvent, eventTime);
+               boolean late = eventTime < newestEvent - STATUS_LATENESS_MS;
+               StatusTimes times = late ? null : latest.computeIfAbsent(key, k -> new StatusTimes());
+               boolean takeDeparted = !late && departed != null && eventTime >= times.departed;
+               boolean takeArrived = !late && arrived != null && eventTime >= times.arrived;
+               if ((departed != null && !takeDeparted) || (arrived != null && !takeArrived))
+                  stale++;
+               if (takeDeparted || takeArrived) {
+                  if (pending.isEmpty())
+                     batchStart = System.currentTimeMillis();
+                  StatusUpdate update = pending.computeIfAbsent(key, k -> new StatusUpdate());
+                  if (update.eventTime == 0 || eventTime < update.eventTime)
+                     update.eventTime = eventTime;
+                  if (takeDeparted) {
+                     update.departed = departed;
+                     times.departed = eventTime;
+                  }
+                  if (takeArrived) {
+                     update.arrived = arrived;
+                     times.arrived = eventTime;
+                  }
+               }
+            } catch (RuntimeException e) {
+               System.err.println("Skipping malformed event '" + line + "': " + e.getMessage());
+               rejected++;
+            }
+         }
+         boolean flush = line == null || pending.size() >= STATUS_BATCH_SIZE ||
+                         System.currentTimeMillis() - batchStart >= STATUS_FLUSH_INTERVAL_MS || !feed.ready();
+         if (flush && !pending.isEmpty()) {
+            int updated = applyStatusBatchWithRetry(esql, pending);
+            if (updated < 0) {
+               skipped += pending.size();
+            }
+            else {
+               applied += updated;
+               unmatched += Math.max(0, pending.size() - updated);
+            }
+            pending.clear();
+         }
+         if (System.currentTimeMillis() - lastPrune >= STATUS_PRUNE_INTERVAL_MS) {
+            pruneStatusTimes(latest, newestEvent - STATUS_LATENESS_MS);
+            lastPrune = System.currentTimeMillis();
+         }
+         if (line == null)
+            break;
+      }
+      double seconds = Math.max((System.currentTimeMillis() - start) / 1000.0, 1e-3);
+      System.out.println(String.format("Ingested %d event(s) in %.2f s (%.0f events/s): %d flight instance(s) updated, %d unknown, %d skipped, %d malformed, %d out of order",
+                                       events, seconds, events / seconds, applied, unmatched, skipped, rejected, stale));
+   }
+
+   private static Boolean parseOnTime(String value) {
+      value = value.trim().toLowerCase();
+      if (value.isEmpty())
+         return null;
+      if (value.equals("true") || value.equals("t") || value.equals("1"))
+         return Boolean.TRUE;
+      if (value.equals("false") || value.equals("f") || value.equals("0"))
+         return Boolean.FALSE;
+      throw new IllegalArgumentException("not an on-time flag: " + value);
+   }
+
+   /*
+    * Applies one coalesced batch and reports its lag. The batch is sorted by
+    * key and its rows are locked in that order before the UPDATE, so two
+    * ingesters working on overlapping flights cannot deadlock.
+    * @return the number of flight instances updated
+    **/
+   private static int applyStatusBatch(AirlineManagement esql, Map<String, StatusUpdate> pending) throws SQLException {
+      StringBuilder values = new StringBuilder();
+      long oldestEvent = Long.MAX_VALUE;
+      long totalEventTime = 0;
+      for (Map.Entry<String, StatusUpdate> entry : pending.entrySet()) {
+         String[] key = entry.getKey().split(",", 2);
+         StatusUpdate update = entry.getValue();
+         if (values.length() > 0) values.append(", ");
+         values.append("('").append(escapeLiteral(key[0])).append("', DATE '").append(key[1]).append("', ")
+               .append(booleanLiteral(update.departed)).append(", ").append(booleanLiteral(update.arrived)).append(")");
+         oldestEvent = Math.min(oldestEvent, update.eventTime);
+         totalEventTime += update.eventTime;
+      }
+      String batch = "(VALUES " + values + ") AS v(FlightNumber, FlightDate, Departed, Arrived)";
+      String lock = "SELECT f.FlightInstanceID FROM FlightInstance f join " + batch +
+                    " on f.FlightNumber = v.FlightNumber AND f.FlightDate = v.FlightDate ORDER BY f.FlightNumber, f.FlightDate FOR UPDATE OF f";
+      String query = "UPDATE FlightInstance f SET DepartedOnTime = COALESCE(v.Departed, f.DepartedOnTime), " +
+                     "ArrivedOnTime = COALESCE(v.Arrived, f.ArrivedOnTime) " +
+                     "FROM " + batch + " " +
+                     "WHERE f.FlightNumber = v.FlightNumber AND f.FlightDate = v.FlightDate";
+      int updated = 0;
+      esql.beginTransaction();
+      try {
+         esql.executeQuery(lock);
+         updated = esql.executeUpdate(query);
+         esql.commitTransaction();
+      } catch (SQLException e) {
+         esql.rollbackTransaction();
+         throw e;
+      }
+      long now = System.currentTimeMillis();
+      System.out.println(String.format("applied %d flight instance(s), lag avg %d ms, max %d ms", updated,
+                                       now - totalEventTime / pending.size(), now - oldestEvent));
+      return updated;
+   }
+
+   private static String booleanLiteral(Boolean value) {
+      return value == null ? "CAST(NULL AS BOOLEAN)" : value.toString().toUpperCase();
+   }
+
+   public static void generateFlightInstances(AirlineManagement esql) {
+      try {
+         System.out.println("Generate flight instances from schedule");
+         System.out.print("\tEnter start date (YYYY-MM-DD): ");
+         String startDate = in.readLine().trim();
+         System.out.print("\tEnter end date (YYYY-MM-DD): ");
+         String endDate = in.readLine().trim();
+         generateFlightInstances(esql, startDate, endDate);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }
+
+   public static void generateFlightInstances(AirlineManagement esql, String startDate, String endDate) throws SQLException {
+      // validates the dates before they reach the query
+      startDate = java.time.LocalDate.parse(startDate).toString();
+      endDate = java.time.LocalDate.parse(endDate).toString();
+
+      long start = System.nanoTime();
+      int created = 0;
+      esql.beginTransaction();
+      try {
+         created = esql.generateFlightInstances(startDate, endDate);
+         esql.commitTransaction();
+      } catch (SQLException e) {
+         esql.rollbackTransaction();
+         throw e;
+      }
+      double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+      System.out.println(String.format("Created %d flight instance(s) from %s to %s in %.2f s (%.0f instances/s)",
+                                       created, startDate, endDate, seconds, created / seconds));
+   }
+
+   public static void addInstanceRule(AirlineManagement esql) {
+      try {
+         System.out.println("Add default seats and fare rule for generated flight instances");
+         System.out.println("Leave a field blank to match any value; a rule with plane and route all blank is the default");
+         System.out.print("\tEnter Plane ID: ");
+         String planeID = in.readLine().trim();
+         System.out.print("\tEnter departure city: ");
+         String departureCity = in.readLine().trim();
+         System.out.print("\tEnter arrival city: ");
+         String arrivalCity = in.readLine().trim();
+         System.out.print("\tEnter total seats: ");
+         int seatsTotal = Integer.parseInt(in.readLine().trim());
+         System.out.print("\tEnter ticket cost: ");
+         String ticketCost = new java.math.BigDecimal(in.readLine().trim()).toPlainString();
+
+         String query = "INSERT INTO InstanceRule (PlaneID, DepartureCity, ArrivalCity, SeatsTotal, TicketCost) VALUES (" +
+                        optionalLiteral(planeID) + ", " + optionalLiteral(departureCity) + ", " + optionalLiteral(arrivalCity) + ", " +
+                        seatsTotal + ", " + ticketCost + ")";
+         esql.executeUpdate(query);
+         System.out.println("Rule added.");
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }
+
+   private static String optionalLiteral(String value) {
+      return value.isEmpty() ? "NULL" : "'" + escapeLiteral(value) + "'";
+   }
+
+   /*
+    * Builds the query behind each exportable report
+    * @return the query or null if the report or its parameters are invalid
+    **/
+   public static String exportQueryFor(String report, String[] params) {
+      switch(report) {
+         case "flights":
+            if (params.length != 2) return null;
+            return "SELECT * FROM FlightInstance WHERE FlightDate >= DATE '" + params[0] + "' AND FlightDate <= DATE '" + params[1] + "' ORDER BY FlightDate, FlightNumber";
+         case "manifest":
+            if (params.length != 2) return null;
+            return "SELECT r.ReservationID, c.CustomerID, c.FirstName, c.LastName, r.Status FROM Customer c join Reservation r On c.CustomerID = r.CustomerID join FlightInstance f On f.FlightInstanceID = r.FlightInstanceID WHERE f.FlightNumber = '" + params[0] + "' AND f.FlightDate = DATE '" + params[1] + "' ORDER BY r.ReservationID";
+         case "repairs":
+            if (params.length != 3) return null;
+            return "SELECT r.RepairID, r.PlaneID, r.RepairCode, r.RepairDate, r.TechnicianID, t.Name FROM Repair r LEFT JOIN Technician t ON r.TechnicianID = t.TechnicianID WHERE r.PlaneID = '" + params[0] + "' AND r.RepairDate BETWEEN DATE '" + params[1] + "' AND DATE '" + params[2] + "' ORDER BY r.RepairDate, r.RepairID";
+         default:
+            return null;
+      }
+   }
+
+   /*
+    * Exports a query to a file and reports the throughput. The format follows
+    * the file name: *.bin is binary, anything else is CSV, and a trailing .gz
+    * compresses the output.
+    **/
+   public static void exportToFile(AirlineManagement esql, String query, String path) throws SQLException, IOException {
+      boolean gzip = path.endsWith(".gz");
+      String name = gzip ? path.substring(0, path.length() - 3) : path;
+      boolean binary = name.endsWith(".bin");
+
+      long start = System.nanoTime();
+      long rowCount = esql.exportQueryToFile(query, path, binary, gzip);
+      double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+      double megabytes = new File(path).length() / (1024.0 * 1024.0);
+      System.out.println(String.format("Exported %d row(s) to %s: %.2f MB in %.3f s (%.2f MB/s)",
+                                       rowCount, path, megabytes, seconds, megabytes / seconds));
+   }
+
+   public static void exportReport(AirlineManagement esql) {
+      try {
+         System.out.println("Export report to file");
+         System.out.println("1. Flight instances in a date range");
+         System.out.println("2. Passenger manifest for a flight");
+         System.out.println("3. Repair history for a plane");
+         String query = null;
+         switch(readChoice()) {
+            case 1:
+               System.out.print("\tEnter start date (YYYY-MM-DD): ");
+               String startDate = in.readLine();
+               System.out.print("\tEnter end date (YYYY-MM-DD): ");
+               String endDate = in.readLine();
+               query = exportQueryFor("flights", new String[] {startDate, endDate});
+               break;
+            case 2:
+               System.out.print("\tEnter flight number: ");
+               String flightNumber = in.readLine();
+               System.out.print("\tEnter date (YYYY-MM-DD): ");
+               String date = in.readLine();
+               query = exportQueryFor("manifest", new String[] {flightNumber, date});
+               break;
+            case 3:
+               System.out.print("\tEnter Plane ID: ");
+               String planeID = in.readLine();
+               System.out.print("\tEnter start date (YYYY-MM-DD): ");
+               String from = in.readLine();
+               System.out.print("\tEnter end date (YYYY-MM-DD): ");
+               String to = in.readLine();
+               query = exportQueryFor("repairs", new String[] {planeID, from, to});
+               break;
+            default:
+               System.out.println("Unrecognized choice!");
+               return;
+         }
+         System.out.print("\tEnter output file (.csv or .bin, add .gz to compress): ");
+         String path = in.readLine();
+         exportToFile(esql, query, path);
       }catch(Exception e){
          System.err.println (e.getMessage());
       }
@@ -856,18 +3131,32 @@ public static void logRepairEntry(AirlineManagement esql) {
       System.out.print("\tEnter Technician ID: ");
       String technicianID = in.readLine();
 
-      String numRepairsQuery = "SELECT COUNT(*) FROM Repair";
-      int repairID = 0;
-      List<List<String>> result = esql.executeQueryAndReturnResult(numRepairsQuery);
-      repairID = Integer.parseInt(result.get(0).get(0));
-      repairID++;
-
-      String query = "INSERT INTO Repair (RepairID, PlaneID, RepairCode, RepairDate, TechnicianID) VALUES " + "(" + repairID + 
-                     ",'" + planeID + "', '" + repairCode + "', DATE '" + repairDate + "', '" + technicianID + "')";
-
-
-      esql.executeUpdate(query);
+      // the repair, the plane's last repair date and the open request backlog change together
+      String updatePlane = "UPDATE Plane SET LastRepairDate = DATE '" + repairDate + "' WHERE PlaneID = '" + planeID +
+                           "' AND (LastRepairDate IS NULL OR LastRepairDate < DATE '" + repairDate + "')";
+      String resolveRequests = "DELETE FROM OpenMaintenanceRequest WHERE PlaneID = '" + planeID + "' AND RepairCode = '" + repairCode +
+                               "' AND RequestDate <= DATE '" + repairDate + "'";
+      String detail = "plane " + planeID + ", code " + repairCode + ", date " + repairDate;
+      int resolved = 0;
+      esql.beginTransaction();
+      try {
+         // ids come from a sequence, so concurrent entries never collide and no table scan is needed
+         String repairID = esql.executeQueryAndReturnResult("SELECT nextval('repair_seq')").get(0).get(0);
+         detail = "repair " + repairID + ", " + detail;
+         String query = "INSERT INTO Repair (RepairID, PlaneID, RepairCode, RepairDate, TechnicianID) VALUES " + "(" + repairID + 
+                        ",'" + planeID + "', '" + repairCode + "', DATE '" + repairDate + "', '" + technicianID + "')";
+         esql.executeUpdate(query);
+         esql.executeUpdate(updatePlane);
+         resolved = esql.executeUpdate(resolveRequests);
+         esql.commitTransaction();
+      } catch (SQLException e) {
+         esql.rollbackTransaction();
+         esql.audit("repair entry", technicianID, "failed", detail + ": " + e.getMessage());
+         throw e;
+      }
+      esql.audit("repair entry", technicianID, "logged", detail);
       System.out.println("Repair entry logged successfully.");
+      System.out.println("Resolved " + resolved + " open maintenance request(s).");
    } catch (Exception e) {
       System.err.println(e.getMessage());
    }
@@ -885,17 +3174,88 @@ public static void createMaintenanceRequest(AirlineManagement esql) {
       System.out.print("\tEnter Request Date (YYYY-MM-DD): ");
       String requestDate = in.readLine();
 
-      String numRequestsQuery = "SELECT COUNT(*) FROM MaintenanceRequest";
-      int requestID = 0;
-      List<List<String>> result = esql.executeQueryAndReturnResult(numRequestsQuery);
-      requestID = Integer.parseInt(result.get(0).get(0));
-      requestID++;
+      String detail = "plane " + planeID + ", code " + repairCode + ", date " + requestDate;
+      esql.beginTransaction();
+      try {
+         String requestID = esql.executeQueryAndReturnResult("SELECT nextval('maintenancerequest_seq')").get(0).get(0);
+         detail = "request " + requestID + ", " + detail;
+         String query = "INSERT INTO MaintenanceRequest (RequestID, PlaneID, RepairCode, RequestDate, PilotID) VALUES " + 
+                        "(" + requestID + ", '" + planeID + "', '" + repairCode + "', DATE '" + requestDate + "', '" + pilotID + "')";
+         String openRequest = "INSERT INTO OpenMaintenanceRequest (RequestID, PlaneID, RepairCode, RequestDate) VALUES " +
+                              "(" + requestID + ", '" + planeID + "', '" + repairCode + "', DATE '" + requestDate + "')";
+         esql.executeUpdate(query);
+         esql.executeUpdate(openRequest);
+         esql.commitTransaction();
+      } catch (SQLException e) {
+         esql.rollbackTransaction();
+         esql.audit("maintenance request", pilotID, "failed", detail + ": " + e.getMessage());
+         throw e;
+      }
+      esql.audit("maintenance request", pilotID, "submitted", detail);
+      System.out.println("Maintenance request submitted.");
+   } catch (Exception e) {
+      System.err.println(e.getMessage());
+   }
+}
 
-      String query = "INSERT INTO MaintenanceRequest (RequestID, PlaneID, RepairCode, RequestDate, PilotID) VALUES " + 
-                     "(" + requestID + ", '" + planeID + "', '" + repairCode + "', DATE '" + requestDate + "', '" + pilotID + "')";
+public static void viewOpenMaintenanceRequests(AirlineManagement esql) {
+   System.out.println("View open maintenance requests");
+   try {
+      System.out.println("1. Open requests for a plane");
+      System.out.println("2. Requests claimed by a technician");
+      System.out.println("3. Unclaimed requests");
+      String query = "SELECT RequestID, PlaneID, RepairCode, RequestDate, TechnicianID FROM OpenMaintenanceRequest WHERE ";
+      switch(readChoice()) {
+         case 1:
+            System.out.print("\tEnter Plane ID: ");
+            query = query + "PlaneID = '" + in.readLine() + "'";
+            break;
+         case 2:
+            System.out.print("\tEnter Technician ID: ");
+            query = query + "TechnicianID = '" + in.readLine() + "'";
+            break;
+         case 3:
+            query = query + "TechnicianID IS NULL";
+            break;
+         default:
+            System.out.println("Unrecognized choice!");
+            return;
+      }
+      query = query + " ORDER BY RequestDate, RequestID";
 
-      esql.executeUpdate(query);
-      System.out.println("Maintenance request submitted.");
+      int rowCount = esql.executeQueryAndPrintResult(query);
+      if(rowCount == 0) {
+         System.out.println("No open requests");
+      }
+      else {
+         System.out.println ("total row(s): " + rowCount);
+      }
+   } catch (Exception e) {
+      System.err.println(e.getMessage());
+   }
+}
+
+public static void claimMaintenanceRequest(AirlineManagement esql) {
+   System.out.println("Claim an open maintenance request");
+   try {
+      System.out.print("\tEnter Request ID: ");
+      String requestID = in.readLine();
+      System.out.print("\tEnter Technician ID: ");
+      String technicianID = in.readLine();
+
+      // only unclaimed requests can be claimed, so nobody takes over another technician's request
+      String query = "UPDATE OpenMaintenanceRequest SET TechnicianID = '" + technicianID + "' WHERE RequestID = " + requestID + " AND TechnicianID IS NULL";
+      if(esql.executeUpdate(query) > 0) {
+         System.out.println("Request " + requestID + " claimed by " + technicianID + ".");
+         return;
+      }
+      List<List<String>> owner = esql.executeQueryAndReturnResult("SELECT TechnicianID FROM OpenMaintenanceRequest WHERE RequestID = " + requestID);
+      if(owner.isEmpty()) {
+         System.out.println("No such open request, try again");
+      }
+      else {
+         System.out.println("Request " + requestID + " is already claimed by " + owner.get(0).get(0) + ".");
+      }
    } catch (Exception e) {
       System.err.println(e.getMessage());
    }
@@ -1,18 +1,33 @@
-DROP INDEX IF EXISTS username_and_password, flightdate, flightnumber_and_flightdate, flight_departure_arrival, flightnumber, reservation_customerid, customer_customerid, repair_planeid_repairdate, technicianid, maintenance_pilotid, schedule_dayofweek, reservation_customerid;
+DROP INDEX IF EXISTS username_and_password, flightdate, flightnumber_and_flightdate, flight_departure_arrival, flightnumber, reservationid, reservation_customerid, customer_customerid, repair_planeid_repairdate, technicianid, repair_technicianid_repairdate, maintenance_pilotid, schedule_dayofweek, schedule_flightnumber, reservation_flightinstanceid, open_request_plane, open_request_technician, customer_lastname_prefix, customer_firstname_prefix, customer_phone_prefix, customer_zip_prefix, customer_lastname_trgm, customer_firstname_trgm, customer_phone_trgm, reservation_waitlist;
 
-CREATE INDEX username_and_password ON Users(username, password);
+-- Users(username), Flight(FlightNumber), Customer(CustomerID) and
+-- Reservation(ReservationID) are served by their primary keys, and
+-- FlightInstance(FlightNumber, FlightDate) by its unique constraint; the
+-- indexes that duplicated them are only dropped above.
 CREATE INDEX flightdate ON FlightInstance(FlightDate);
-CREATE INDEX flightnumber_and_flightdate ON FlightInstance(FlightNumber, FlightDate);
 CREATE INDEX flight_departure_arrival ON Flight(DepartureCity, ArrivalCity);
 CREATE INDEX schedule_dayofweek ON Schedule(DayOfWeek, FlightNumber);
-CREATE INDEX reservationID ON Reservation(ReservationID);
+CREATE INDEX schedule_flightnumber ON Schedule(FlightNumber);
 
-CREATE INDEX flightnumber ON Flight(FlightNumber);
 CREATE INDEX reservation_customerid ON Reservation(CustomerID);
-CREATE INDEX customer_customerid ON Customer(CustomerID);
+CREATE INDEX reservation_flightinstanceid ON Reservation(FlightInstanceID);
+-- Waitlist promotion: oldest waitlisted reservations per flight
+CREATE INDEX reservation_waitlist ON Reservation(FlightInstanceID, (CAST(SUBSTRING(ReservationID FROM 2) AS INTEGER))) WHERE Status = 'waitlist';
 CREATE INDEX repair_planeid_repairdate ON Repair(PlaneID, RepairDate);
-CREATE INDEX technicianid ON Repair(TechnicianID);
+CREATE INDEX repair_technicianid_repairdate ON Repair(TechnicianID, RepairDate);
 CREATE INDEX maintenance_pilotid ON MaintenanceRequest(PilotID);
+CREATE INDEX open_request_plane ON OpenMaintenanceRequest(PlaneID, RepairCode, RequestDate);
+CREATE INDEX open_request_technician ON OpenMaintenanceRequest(TechnicianID, RequestDate);
+
+-- Customer lookup: prefix/keyset on normalized keys, trigram for substring matches
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX customer_lastname_prefix ON Customer((lower(LastName) COLLATE "C"), CustomerID);
+CREATE INDEX customer_firstname_prefix ON Customer((lower(FirstName) COLLATE "C"), CustomerID);
+CREATE INDEX customer_phone_prefix ON Customer((regexp_replace(Phone, '[^0-9]', '', 'g') COLLATE "C"), CustomerID);
+CREATE INDEX customer_zip_prefix ON Customer((Zip COLLATE "C"), CustomerID);
+CREATE INDEX customer_lastname_trgm ON Customer USING gin (lower(LastName) gin_trgm_ops);
+CREATE INDEX customer_firstname_trgm ON Customer USING gin (lower(FirstName) gin_trgm_ops);
+CREATE INDEX customer_phone_trgm ON Customer USING gin (regexp_replace(Phone, '[^0-9]', '', 'g') gin_trgm_ops);
 
 
 
@@ -1,4 +1,7 @@
 -- Drop existing tables
+DROP TABLE IF EXISTS InstanceRule;
+DROP TABLE IF EXISTS AuditEvent;
+DROP TABLE IF EXISTS OpenMaintenanceRequest;
 DROP TABLE IF EXISTS MaintenanceRequest;
 DROP TABLE IF EXISTS Repair;
 DROP TABLE IF EXISTS Technician;
@@ -10,6 +13,10 @@ DROP TABLE IF EXISTS Flight;
 DROP TABLE IF EXISTS Plane;
 DROP TABLE IF EXISTS Pilot;
 DROP Table IF EXISTS Users;
+DROP SEQUENCE IF EXISTS reservation_seq;
+DROP SEQUENCE IF EXISTS flightinstance_seq;
+DROP SEQUENCE IF EXISTS repair_seq;
+DROP SEQUENCE IF EXISTS maintenancerequest_seq;
 
 -- Plane Table
 CREATE TABLE Plane (
@@ -20,6 +27,21 @@ CREATE TABLE Plane (
     LastRepairDate DATE
 );
 
+-- InstanceRule Table
+-- Defaults for FlightInstance rows generated from Schedule. A rule matches a
+-- plane, a route or both (NULL matches anything); the most specific wins. The
+-- newest rule with plane and route all NULL is the default for flights that
+-- match no rule and have no earlier instance.
+CREATE TABLE InstanceRule (
+    RuleID SERIAL PRIMARY KEY,
+    PlaneID TEXT,
+    DepartureCity TEXT,
+    ArrivalCity TEXT,
+    SeatsTotal INTEGER,
+    TicketCost DECIMAL(10,2),
+    FOREIGN KEY (PlaneID) REFERENCES Plane(PlaneID)
+);
+
 -- Flight Table
 CREATE TABLE Flight (
     FlightNumber TEXT PRIMARY KEY,
@@ -50,9 +72,14 @@ CREATE TABLE FlightInstance (
     SeatsSold INTEGER,
     NumOfStops INTEGER,
     TicketCost DECIMAL(10,2),
+    -- one instance per flight per day, the arbiter of instance generation's ON CONFLICT
+    UNIQUE (FlightNumber, FlightDate),
     FOREIGN KEY (FlightNumber) REFERENCES Flight(FlightNumber)
 );
 
+-- New FlightInstanceIDs, e.g. for instances generated from Schedule
+CREATE SEQUENCE flightinstance_seq;
+
 -- Customer Table
 CREATE TABLE Customer (
     CustomerID INTEGER PRIMARY KEY,
@@ -70,11 +97,14 @@ CREATE TABLE Reservation (
     ReservationID TEXT PRIMARY KEY,
     CustomerID INTEGER,
     FlightInstanceID INTEGER,
-    Status TEXT CHECK(Status IN ('reserved', 'waitlist', 'flown')),
+    Status TEXT CHECK(Status IN ('reserved', 'waitlist', 'flown', 'cancelled')),
     FOREIGN KEY (CustomerID) REFERENCES Customer(CustomerID),
     FOREIGN KEY (FlightInstanceID) REFERENCES FlightInstance(FlightInstanceID)
 );
 
+-- Numeric part of new ReservationIDs (R0001, R0002, ...)
+CREATE SEQUENCE reservation_seq;
+
 -- Technician Table
 CREATE TABLE Technician (
     TechnicianID TEXT PRIMARY KEY,
@@ -92,6 +122,9 @@ CREATE TABLE Repair (
     FOREIGN KEY (TechnicianID) REFERENCES Technician(TechnicianID)
 );
 
+-- New RepairIDs
+CREATE SEQUENCE repair_seq;
+
 -- Pilot Table
 CREATE TABLE Pilot (
     PilotID TEXT PRIMARY KEY,
@@ -109,9 +142,103 @@ CREATE TABLE MaintenanceRequest (
     FOREIGN KEY (PilotID) REFERENCES Pilot(PilotID)
 );
 
+-- New RequestIDs
+CREATE SEQUENCE maintenancerequest_seq;
+
+-- OpenMaintenanceRequest Table
+-- MaintenanceRequest rows not yet resolved by a later Repair of the same
+-- plane and repair code. Kept in step with Repair by the application.
+CREATE TABLE OpenMaintenanceRequest (
+    RequestID INTEGER PRIMARY KEY,
+    PlaneID TEXT,
+    RepairCode TEXT,
+    RequestDate DATE,
+    TechnicianID TEXT,
+    FOREIGN KEY (RequestID) REFERENCES MaintenanceRequest(RequestID),
+    FOREIGN KEY (PlaneID) REFERENCES Plane(PlaneID),
+    FOREIGN KEY (TechnicianID) REFERENCES Technician(TechnicianID)
+);
+
 CREATE TABLE Users (
     username TEXT PRIMARY KEY,
     password TEXT,
     role TEXT,
     CHECK(role IN ('management', 'customer', 'pilot', 'technician'))
-);
\ No newline at end of file
+);
+
+-- Cache invalidation: every statement that changes a table NOTIFYs channel
+-- cache_<table> once per distinct key the clients cache that table's results
+-- under (see CacheInvalidationListener). The triggers are statement level and
+-- read the changed keys from transition tables (PostgreSQL 10 or later), so a
+-- bulk change sends one notification per key rather than one per row.
+-- FlightInstance is not cached: SeatsSold changes with every booking, and
+-- without a payload-capable driver each change would flush all its entries.
+CREATE OR REPLACE FUNCTION notify_cache_invalidation() RETURNS trigger AS $$
+DECLARE
+    keyColumn TEXT := lower(TG_ARGV[0]);
+    changedKeys TEXT;
+    changedKey TEXT;
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        changedKeys := format('SELECT DISTINCT CAST(%I AS TEXT) FROM new_rows', keyColumn);
+    ELSIF TG_OP = 'DELETE' THEN
+        changedKeys := format('SELECT DISTINCT CAST(%I AS TEXT) FROM old_rows', keyColumn);
+    ELSE
+        changedKeys := format('SELECT CAST(%I AS TEXT) FROM new_rows UNION SELECT CAST(%I AS TEXT) FROM old_rows', keyColumn, keyColumn);
+    END IF;
+    FOR changedKey IN EXECUTE changedKeys LOOP
+        PERFORM pg_notify('cache_' || lower(TG_TABLE_NAME), COALESCE(changedKey, ''));
+    END LOOP;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER plane_cache_invalidation_insert AFTER INSERT ON Plane
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_cache_invalidation('PlaneID');
+CREATE TRIGGER plane_cache_invalidation_update AFTER UPDATE ON Plane
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_cache_invalidation('PlaneID');
+CREATE TRIGGER plane_cache_invalidation_delete AFTER DELETE ON Plane
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_cache_invalidation('PlaneID');
+CREATE TRIGGER schedule_cache_invalidation_insert AFTER INSERT ON Schedule
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_cache_invalidation('FlightNumber');
+CREATE TRIGGER schedule_cache_invalidation_update AFTER UPDATE ON Schedule
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_cache_invalidation('FlightNumber');
+CREATE TRIGGER schedule_cache_invalidation_delete AFTER DELETE ON Schedule
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_cache_invalidation('FlightNumber');
+CREATE TRIGGER repair_cache_invalidation_insert AFTER INSERT ON Repair
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_cache_invalidation('PlaneID');
+CREATE TRIGGER repair_cache_invalidation_update AFTER UPDATE ON Repair
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_cache_invalidation('PlaneID');
+CREATE TRIGGER repair_cache_invalidation_delete AFTER DELETE ON Repair
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE PROCEDURE notify_cache_invalidation('PlaneID');
+
+
+-- AuditEvent Table
+-- Append-only log of logins, bookings, repair entries and maintenance
+-- requests, written in batches by the client's AuditLog
+CREATE TABLE AuditEvent (
+    EventID BIGSERIAL PRIMARY KEY,
+    EventTime TIMESTAMP WITH TIME ZONE,
+    EventType TEXT,
+    Actor TEXT,
+    Outcome TEXT,
+    Detail TEXT
+);
+
+CREATE OR REPLACE FUNCTION reject_audit_change() RETURNS trigger AS $$
+BEGIN
+    RAISE EXCEPTION 'AuditEvent is append-only';
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER auditevent_append_only BEFORE UPDATE OR DELETE ON AuditEvent
+    FOR EACH ROW EXECUTE PROCEDURE reject_audit_change();
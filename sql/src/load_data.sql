@@ -22,3 +22,28 @@
 
 \copy Users FROM 'data/Users.csv' WITH DELIMITER ',' CSV HEADER; 
 
+
+/* Requests with no repair of the same plane and code on or after the request date are still open */
+INSERT INTO OpenMaintenanceRequest (RequestID, PlaneID, RepairCode, RequestDate)
+SELECT m.RequestID, m.PlaneID, m.RepairCode, m.RequestDate
+FROM MaintenanceRequest m
+WHERE NOT EXISTS (SELECT 1 FROM Repair r WHERE r.PlaneID = m.PlaneID AND r.RepairCode = m.RepairCode AND r.RepairDate >= m.RequestDate);
+
+/* Bring LastRepairDate up to date with the loaded repair history */
+UPDATE Plane p SET LastRepairDate = r.LastDate
+FROM (SELECT PlaneID, MAX(RepairDate) AS LastDate FROM Repair GROUP BY PlaneID) r
+WHERE p.PlaneID = r.PlaneID AND (p.LastRepairDate IS NULL OR p.LastRepairDate < r.LastDate);
+
+/* Continue reservation ids after the loaded ones */
+SELECT setval('reservation_seq', COALESCE(MAX(CAST(SUBSTRING(ReservationID FROM 2) AS INTEGER)), 0) + 1, false) FROM Reservation;
+
+/* Continue flight instance ids after the loaded ones */
+SELECT setval('flightinstance_seq', COALESCE(MAX(FlightInstanceID), 0) + 1, false) FROM FlightInstance;
+
+/* Continue repair and maintenance request ids after the loaded ones */
+SELECT setval('repair_seq', COALESCE(MAX(RepairID), 0) + 1, false) FROM Repair;
+SELECT setval('maintenancerequest_seq', COALESCE(MAX(RequestID), 0) + 1, false) FROM MaintenanceRequest;
+
+/* Default seats and fare for generated flight instances, editable through InstanceRule */
+INSERT INTO InstanceRule (SeatsTotal, TicketCost)
+SELECT 180, ROUND(AVG(TicketCost), 2) FROM FlightInstance;